@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.opentok.api.OpenTokSDK;
+
+/**
+ * Compares one-connection-per-call, pooled persistent HTTP/1.1 connections and HTTP/2
+ * streams for concurrent create_session calls against the local stub server. The HTTP/2
+ * run needs Java 11 or later.
+ *
+ * Usage: java ConnectionBenchmark [threads] [calls] [max_connections] [latency_ms] [max_streams]
+ */
+class ConnectionBenchmark {
+	public static void main(String argv[]) throws Exception {
+		int threads = argv.length > 0 ? Integer.parseInt(argv[0]) : 32;
+		int calls = argv.length > 1 ? Integer.parseInt(argv[1]) : 5000;
+		int max_connections = argv.length > 2 ? Integer.parseInt(argv[2]) : 8;
+		long latency_ms = argv.length > 3 ? Long.parseLong(argv[3]) : 2;
+		int max_streams = argv.length > 4 ? Integer.parseInt(argv[4]) : 0;
+
+		// Keep enough idle connections around for the pool to reuse them
+		System.setProperty("http.maxConnections", String.valueOf(Math.max(5, max_connections)));
+
+		StubServer stub = new StubServer(1234, latency_ms, threads);
+		stub.start();
+		try {
+			run("per-call", stub, new OpenTokSDK(1234, "secret", stub.url()), threads, calls);
+
+			OpenTokSDK pooled = new OpenTokSDK(1234, "secret", stub.url());
+			pooled.set_connection_pooling(max_connections);
+			run("pooled(" + max_connections + ")", stub, pooled, threads, calls);
+
+			OpenTokSDK http2 = new OpenTokSDK(1234, "secret", stub.http2Url());
+			http2.set_http2(max_streams);
+			run("http2(" + max_streams + ")", stub, http2, threads, calls);
+		} finally {
+			stub.stop();
+		}
+	}
+
+	private static void run(String name, StubServer stub, final OpenTokSDK sdk, int threads, final int calls) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int t = 0; t < threads; t++) {
+			final int share = calls / threads;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					for(int i = 0; i < share; i++) {
+						sdk.create_session();
+					}
+					return null;
+				}
+			});
+		}
+
+		// One call first, so an HTTP/2 client has its connection before the concurrent calls start
+		sdk.create_session();
+		stub.resetConnections();
+		long start = System.nanoTime();
+		for(Future<Void> f : pool.invokeAll(tasks)) {
+			f.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		long done = (long) (calls / threads) * threads;
+		System.out.println(name + ": " + done + " calls in " + (elapsed / 1000000) + " ms, "
+				+ (done * 1000000000L / elapsed) + " calls/s, " + stub.connections() + " connections; "
+				+ sdk.get_connection_stats());
+	}
+}
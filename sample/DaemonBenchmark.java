@@ -0,0 +1,244 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenDaemon;
+import com.opentok.util.Base64;
+
+/**
+ * Measures token latency through a TokenDaemon from the client side: each connection keeps
+ * --pipeline requests of --batch token lines in flight and records the time from sending a
+ * request to reading its response. Starts a daemon in-process unless --token-file names
+ * the auth token of a running one. --unix connects through a Unix domain socket instead of
+ * loopback TCP, which needs Java 16 or later.
+ * Prints one JSON object with tokens per second and request latency percentiles.
+ *
+ * Usage: java DaemonBenchmark [--token-file path [--port port]] [--unix path] [--connections n]
+ *            [--pipeline n] [--batch n] [--duration seconds] [--warmup seconds]
+ */
+class DaemonBenchmark {
+
+	public static void main(String argv[]) throws Exception {
+		Map<String, String> opts = new HashMap<String, String>();
+		for(int i = 0; i + 1 < argv.length; i += 2) {
+			opts.put(argv[i].replaceFirst("^--", ""), argv[i + 1]);
+		}
+		int connections = Integer.parseInt(option(opts, "connections", "4"));
+		int pipeline = Integer.parseInt(option(opts, "pipeline", "1"));
+		int batch = Integer.parseInt(option(opts, "batch", "1"));
+		long duration = Long.parseLong(option(opts, "duration", "10"));
+		long warmup = Long.parseLong(option(opts, "warmup", "2"));
+
+		String unix = opts.get("unix");
+
+		TokenDaemon daemon = null;
+		int port;
+		String token;
+		if(opts.containsKey("token-file")) {
+			port = Integer.parseInt(option(opts, "port", "7450"));
+			BufferedReader reader = new BufferedReader(new FileReader(opts.get("token-file")));
+			try {
+				token = reader.readLine().trim();
+			} finally {
+				reader.close();
+			}
+		} else {
+			daemon = new TokenDaemon(new OpenTokSDK(1234, "secret", "http://127.0.0.1:1"), 0);
+			daemon.start(1000);
+			if(null != unix) {
+				daemon.listen_unix(new File(unix));
+			}
+			port = daemon.get_port();
+			token = daemon.get_auth_token();
+		}
+		try {
+			String session_id = "1_" + Base64.encode("1~1234~daemon~0~").replace('+', '-').replace('/', '_').replace("=", "");
+			StringBuilder lines = new StringBuilder();
+			for(int i = 0; i < batch; i++) {
+				lines.append(session_id).append("\tpublisher\t\tuser=").append(i).append('\n');
+			}
+			byte[] body = lines.toString().getBytes("UTF-8");
+			byte[] request = ("POST /tokens HTTP/1.1\r\nHost: 127.0.0.1\r\nAuthorization: Bearer " + token
+					+ "\r\nContent-Type: text/plain\r\nContent-Length: " + body.length + "\r\n\r\n" + lines).getBytes("UTF-8");
+
+			if(warmup > 0) {
+				run(port, unix, request, connections, pipeline, warmup * 1000000000L);
+			}
+			Result result = run(port, unix, request, connections, pipeline, duration * 1000000000L);
+
+			StringBuilder json = new StringBuilder();
+			json.append("{\"transport\":\"").append(null == unix ? "tcp" : "unix").append("\"");
+			json.append(",\"connections\":").append(connections);
+			json.append(",\"pipeline\":").append(pipeline);
+			json.append(",\"batch\":").append(batch);
+			json.append(",\"requests\":").append(result.histogram.count());
+			json.append(",\"errors\":").append(result.errors);
+			json.append(",\"tokens_per_s\":").append(result.histogram.count() * batch * 1e9 / result.elapsed);
+			json.append(",\"request_latency_us\":{");
+			double[] percentiles = { 50, 90, 99, 99.9 };
+			for(int i = 0; i < percentiles.length; i++) {
+				json.append("\"p").append(percentiles[i]).append("\":").append(result.histogram.percentile(percentiles[i]) / 1000.0).append(",");
+			}
+			json.append("\"max\":").append(result.histogram.max() / 1000.0).append("}");
+			json.append(",\"jvm\":\"").append(System.getProperty("java.version")).append("\"}");
+			System.out.println(json);
+		} finally {
+			if(null != daemon) {
+				daemon.stop();
+			}
+		}
+	}
+
+	private static String option(Map<String, String> opts, String name, String fallback) {
+		String value = opts.get(name);
+		return value != null ? value : fallback;
+	}
+
+	static class Result {
+		LatencyHistogram histogram = new LatencyHistogram();
+		long errors;
+		long elapsed;
+	}
+
+	/**
+	 * Connects over loopback TCP, or to the Unix domain socket at unix when it is set. The
+	 * Java 16 API for the latter is reached reflectively so the samples still build for Java 8.
+	 */
+	private static Closeable connect(int port, String unix, InputStream[] in, OutputStream[] out) throws IOException {
+		if(null == unix) {
+			Socket socket = new Socket("127.0.0.1", port);
+			socket.setTcpNoDelay(true);
+			in[0] = socket.getInputStream();
+			out[0] = socket.getOutputStream();
+			return socket;
+		}
+		SocketChannel channel;
+		try {
+			SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+					.getMethod("of", String.class).invoke(null, unix);
+			channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class)
+					.invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+			channel.connect(address);
+		} catch(IOException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IOException("Unix domain sockets need Java 16 or later: " + e);
+		}
+		in[0] = Channels.newInputStream(channel);
+		out[0] = Channels.newOutputStream(channel);
+		return channel;
+	}
+
+	private static Result run(final int port, final String unix, final byte[] request, int connections, final int pipeline, long duration) throws InterruptedException {
+		final long end = System.nanoTime() + duration;
+		final LatencyHistogram[] histograms = new LatencyHistogram[connections];
+		final AtomicLong errors = new AtomicLong();
+		Thread[] clients = new Thread[connections];
+		long start = System.nanoTime();
+		for(int c = 0; c < connections; c++) {
+			final LatencyHistogram histogram = histograms[c] = new LatencyHistogram();
+			clients[c] = new Thread("daemon-client-" + c) {
+				public void run() {
+					try {
+						InputStream[] raw_in = new InputStream[1];
+						OutputStream[] raw_out = new OutputStream[1];
+						Closeable socket = connect(port, unix, raw_in, raw_out);
+						InputStream in = new BufferedInputStream(raw_in[0]);
+						OutputStream out = new BufferedOutputStream(raw_out[0]);
+						LinkedList<Long> sent = new LinkedList<Long>();
+						try {
+							for(int i = 0; i < pipeline; i++) {
+								out.write(request);
+								sent.add(System.nanoTime());
+							}
+							out.flush();
+							while(!sent.isEmpty()) {
+								errors.addAndGet(read_response(in));
+								histogram.record(System.nanoTime() - sent.removeFirst());
+								if(System.nanoTime() < end) {
+									out.write(request);
+									out.flush();
+									sent.add(System.nanoTime());
+								}
+							}
+						} finally {
+							socket.close();
+						}
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			clients[c].start();
+		}
+		Result result = new Result();
+		for(int c = 0; c < connections; c++) {
+			clients[c].join();
+			result.histogram.merge(histograms[c]);
+		}
+		result.elapsed = System.nanoTime() - start;
+		result.errors = errors.get();
+		return result;
+	}
+
+	/**
+	 * Reads one response and returns the number of token lines that came back as errors.
+	 */
+	private static int read_response(InputStream in) throws IOException {
+		String status = line(in);
+		if(!status.startsWith("HTTP/1.1 200")) {
+			throw new IOException("Unexpected response " + status);
+		}
+		int length = 0;
+		String header;
+		while((header = line(in)).length() > 0) {
+			if(header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+				length = Integer.parseInt(header.substring(15).trim());
+			}
+		}
+		int errors = 0;
+		boolean line_start = true;
+		for(int i = 0; i < length; i++) {
+			int c = in.read();
+			if(c < 0) {
+				throw new IOException("Response ended early");
+			}
+			if(line_start && c == '!') {
+				errors++;
+			}
+			line_start = c == '\n';
+		}
+		return errors;
+	}
+
+	private static String line(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while((c = in.read()) != '\n') {
+			if(c < 0) {
+				throw new IOException("Connection closed");
+			}
+			if(c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,74 @@
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.constants.RoleConstants;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+
+/**
+ * Measures cold-start cost: the latency of the very first generate_token and create_session
+ * calls in a fresh process, next to the steady-state cost once warmed up. Run it under the
+ * JVM and as a native image (mvn -Pnative package) and wrap both in `time` for process startup.
+ * On Linux the peak resident set size of the process is reported as well.
+ *
+ * Usage: java FirstToken [warm_iterations]
+ */
+class FirstToken {
+	public static void main(String argv[]) throws Exception {
+		long main_start = System.nanoTime();
+		int iterations = argv.length > 0 ? Integer.parseInt(argv[0]) : 20000;
+
+		StubServer stub = new StubServer(1234, 0, 2);
+		stub.start();
+		try {
+			OpenTokSDK sdk = new OpenTokSDK(1234, "secret", stub.url());
+			String session_id = stub.sessionId(0);
+
+			long start = System.nanoTime();
+			sdk.generate_token(session_id, RoleConstants.PUBLISHER, null, "user=first");
+			long first_token = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sdk.create_session();
+			long first_session = System.nanoTime() - start;
+
+			for(int i = 0; i < iterations; i++) {
+				sdk.generate_token(session_id, RoleConstants.PUBLISHER, null, "user=warm");
+			}
+			start = System.nanoTime();
+			for(int i = 0; i < 1000; i++) {
+				sdk.generate_token(session_id, RoleConstants.PUBLISHER, null, "user=warm");
+			}
+			long warm_token = (System.nanoTime() - start) / 1000;
+
+			System.out.println("{\"runtime\":\"" + System.getProperty("java.vm.name") + "\""
+					+ ",\"first_token_us\":" + first_token / 1000.0
+					+ ",\"first_session_us\":" + first_session / 1000.0
+					+ ",\"warm_token_us\":" + warm_token / 1000.0
+					+ ",\"main_to_done_ms\":" + (System.nanoTime() - main_start) / 1e6
+					+ ",\"peak_rss_kb\":" + peakRssKb() + "}");
+		} finally {
+			stub.stop();
+		}
+	}
+
+	/**
+	 * VmHWM from /proc/self/status, or -1 where there is no such file.
+	 */
+	private static long peakRssKb() {
+		try {
+			BufferedReader in = new BufferedReader(new FileReader("/proc/self/status"));
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					if(line.startsWith("VmHWM:")) {
+						return Long.parseLong(line.substring(6).replace("kB", "").trim());
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch(Exception e) {
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,202 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One cleartext HTTP/2 connection to the StubServer, just enough of RFC 7540 for HttpClient:
+ * the Upgrade: h2c handshake, SETTINGS, PING and WINDOW_UPDATE, and a session response on
+ * every stream the client finishes sending. Request headers are never decoded, so every
+ * stream is answered as /session/create. Requests without an upgrade get HTTP/1.1.
+ */
+class H2cConnection implements Runnable {
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int SETTINGS = 0x4;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+
+	private final StubServer stub;
+	private final Socket socket;
+	private DataInputStream in;
+	private OutputStream out;
+
+	H2cConnection(StubServer stub, Socket socket) {
+		this.stub = stub;
+		this.socket = socket;
+	}
+
+	public void run() {
+		try {
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new BufferedOutputStream(socket.getOutputStream());
+
+			while(true) {
+				Map<String, String> headers = readHead();
+				if(null == headers) {
+					return;
+				}
+				String length = headers.get("content-length");
+				in.readFully(new byte[null == length ? 0 : Integer.parseInt(length.trim())]);
+				if("h2c".equalsIgnoreCase(headers.get("upgrade"))) {
+					break;
+				}
+				stub.seen(socket);
+				byte[] body = stub.sessionResponse();
+				out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+				out.write(body);
+				out.flush();
+			}
+
+			synchronized(out) {
+				out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes("ISO-8859-1"));
+				frame(SETTINGS, 0, 0, new byte[0]);
+			}
+			// The upgraded request becomes stream 1
+			respond(1);
+
+			byte[] preface = new byte[PREFACE.length];
+			in.readFully(preface);
+			if(!Arrays.equals(PREFACE, preface)) {
+				return;
+			}
+			while(true) {
+				int length = (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+				int type = in.readUnsignedByte();
+				int flags = in.readUnsignedByte();
+				int stream = in.readInt() & 0x7fffffff;
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+
+				switch(type) {
+				case DATA:
+					if(length > 0) {
+						// Give the bytes back to the connection window; each stream's body is far below its own
+						synchronized(out) {
+							frame(WINDOW_UPDATE, 0, 0, new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+						}
+					}
+					if(0 != (flags & END_STREAM)) {
+						respond(stream);
+					}
+					break;
+				case HEADERS:
+					if(0 != (flags & END_STREAM)) {
+						respond(stream);
+					}
+					break;
+				case SETTINGS:
+				case PING:
+					if(0 == (flags & ACK)) {
+						synchronized(out) {
+							frame(type, ACK, 0, SETTINGS == type ? new byte[0] : payload);
+						}
+					}
+					break;
+				case GOAWAY:
+					return;
+				default:
+					break;
+				}
+			}
+		} catch(IOException e) {
+			// Client went away
+		} finally {
+			close();
+		}
+	}
+
+	private void respond(final int stream) {
+		stub.seen(socket);
+		stub.submit(new Runnable() {
+			public void run() {
+				try {
+					byte[] body = stub.sessionResponse();
+					// HPACK: indexed :status 200, then content-type and content-length as literals without indexing
+					ByteArrayOutputStream block = new ByteArrayOutputStream();
+					block.write(0x88);
+					literal(block, 31, "text/xml");
+					literal(block, 28, Integer.toString(body.length));
+					synchronized(out) {
+						frame(HEADERS, END_HEADERS, stream, block.toByteArray());
+						frame(DATA, END_STREAM, stream, body);
+					}
+				} catch(IOException e) {
+					close();
+				}
+			}
+		});
+	}
+
+	private static void literal(ByteArrayOutputStream block, int name_index, String value) {
+		block.write(0x0f);
+		block.write(name_index - 15);
+		block.write(value.length());
+		block.write(value.getBytes(), 0, value.length());
+	}
+
+	/** Writes one frame and flushes. Callers hold the lock on out. */
+	private void frame(int type, int flags, int stream, byte[] payload) throws IOException {
+		out.write(payload.length >>> 16);
+		out.write(payload.length >>> 8);
+		out.write(payload.length);
+		out.write(type);
+		out.write(flags);
+		out.write(stream >>> 24);
+		out.write(stream >>> 16);
+		out.write(stream >>> 8);
+		out.write(stream);
+		out.write(payload);
+		out.flush();
+	}
+
+	private Map<String, String> readHead() throws IOException {
+		String line = readLine();
+		if(null == line) {
+			return null;
+		}
+		Map<String, String> headers = new HashMap<String, String>();
+		while(null != (line = readLine()) && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if(colon > 0) {
+				headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+		}
+		return headers;
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while((c = in.read()) != '\n') {
+			if(c < 0) {
+				return line.length() > 0 ? line.toString() : null;
+			}
+			if(c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private void close() {
+		try {
+			socket.close();
+		} catch(IOException e) {
+		}
+	}
+}
@@ -0,0 +1,24 @@
+import java.io.File;
+
+import com.opentok.api.IssuanceJournal;
+import com.opentok.api.IssuanceRecord;
+
+/**
+ * Prints every token recorded in an issuance journal directory, oldest first.
+ *
+ * Usage: java JournalReplay journal_directory
+ */
+class JournalReplay {
+	public static void main(String argv[]) throws Exception {
+		if(argv.length != 1) {
+			System.err.println("Usage: java JournalReplay journal_directory");
+			System.exit(1);
+		}
+		long count = IssuanceJournal.replay(new File(argv[0]), new IssuanceJournal.Handler() {
+			public void on_record(IssuanceRecord record) {
+				System.out.println(record);
+			}
+		});
+		System.err.println(count + " tokens");
+	}
+}
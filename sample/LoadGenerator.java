@@ -0,0 +1,225 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.api.IssuanceJournal;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenTemplate;
+import com.opentok.api.constants.RoleConstants;
+
+/**
+ * Drives generate_token, TokenTemplate.mint or create_session at a target rate (open loop)
+ * or with a fixed number of callers (closed loop), then prints one JSON object with the
+ * throughput, latency percentiles and allocation rate so runs can be compared over time.
+ * With --journal every issued token is also recorded in an IssuanceJournal in that directory,
+ * to measure its overhead against a run without.
+ *
+ * In open-loop mode every call has an intended start time and latency is measured from
+ * it, so a stalled SDK is charged for the calls it delayed (no coordinated omission).
+ *
+ * Usage: java LoadGenerator [--op token|template|session] [--rate ops_per_sec | --concurrency n]
+ *            [--threads n] [--duration seconds] [--warmup seconds]
+ *            [--url stub|api_url] [--api-key key] [--api-secret secret] [--session-id id]
+ *            [--journal directory]
+ */
+class LoadGenerator {
+
+	interface Operation {
+		void run() throws Exception;
+	}
+
+	public static void main(String argv[]) throws Exception {
+		Map<String, String> opts = new HashMap<String, String>();
+		for(int i = 0; i + 1 < argv.length; i += 2) {
+			opts.put(argv[i].replaceFirst("^--", ""), argv[i + 1]);
+		}
+		String op = option(opts, "op", "token");
+		double rate = Double.parseDouble(option(opts, "rate", "0"));
+		int concurrency = Integer.parseInt(option(opts, "concurrency", "4"));
+		int threads = Integer.parseInt(option(opts, "threads", String.valueOf(rate > 0 ? 16 : concurrency)));
+		long duration = Long.parseLong(option(opts, "duration", "10"));
+		long warmup = Long.parseLong(option(opts, "warmup", "2"));
+		String url = option(opts, "url", "stub");
+		int api_key = Integer.parseInt(option(opts, "api-key", "1234"));
+		String api_secret = option(opts, "api-secret", "secret");
+
+		StubServer stub = null;
+		if("stub".equals(url)) {
+			stub = new StubServer(api_key, 0, threads);
+			stub.start();
+			url = stub.url();
+		}
+		try {
+			final OpenTokSDK sdk = new OpenTokSDK(api_key, api_secret, url);
+			IssuanceJournal journal = null;
+			if(opts.containsKey("journal")) {
+				journal = new IssuanceJournal(new File(opts.get("journal")));
+				sdk.set_issuance_journal(journal);
+			}
+			String session_id = opts.get("session-id");
+			if(null == session_id) {
+				session_id = stub != null ? stub.sessionId(0) : sdk.create_session().session_id;
+			}
+			Operation operation = operation(op, sdk, session_id);
+
+			if(warmup > 0) {
+				run(operation, 0, threads, warmup * 1000000000L);
+			}
+			Result result = run(operation, rate, threads, duration * 1000000000L);
+			if(null != journal) {
+				journal.close();
+			}
+
+			StringBuilder json = new StringBuilder();
+			json.append("{\"op\":\"").append(op).append("\"");
+			json.append(",\"mode\":\"").append(rate > 0 ? "open" : "closed").append("\"");
+			json.append(",\"target_rate\":").append(rate);
+			json.append(",\"threads\":").append(threads);
+			json.append(",\"duration_s\":").append(result.elapsed / 1e9);
+			json.append(",\"ops\":").append(result.histogram.count());
+			json.append(",\"errors\":").append(result.errors);
+			json.append(",\"throughput\":").append(result.histogram.count() * 1e9 / result.elapsed);
+			json.append(",\"latency_us\":{");
+			double[] percentiles = { 50, 90, 99, 99.9, 99.99 };
+			for(int i = 0; i < percentiles.length; i++) {
+				json.append("\"p").append(percentiles[i]).append("\":").append(result.histogram.percentile(percentiles[i]) / 1000.0).append(",");
+			}
+			json.append("\"max\":").append(result.histogram.max() / 1000.0).append("}");
+			json.append(",\"alloc_bytes_per_op\":").append(result.histogram.count() == 0 ? 0 : result.allocated / result.histogram.count());
+			json.append(",\"alloc_mb_per_s\":").append(result.allocated * 1e9 / result.elapsed / (1024 * 1024));
+			if(null != journal) {
+				json.append(",\"journal\":{\"written\":").append(journal.written());
+				json.append(",\"stalls\":").append(journal.stalls());
+				json.append(",\"flushes\":").append(journal.flushes()).append("}");
+			}
+			json.append(",\"jvm\":\"").append(System.getProperty("java.version")).append("\"}");
+			System.out.println(json);
+		} finally {
+			if(null != stub) {
+				stub.stop();
+			}
+		}
+	}
+
+	private static String option(Map<String, String> opts, String name, String fallback) {
+		String value = opts.get(name);
+		return value != null ? value : fallback;
+	}
+
+	private static Operation operation(String op, final OpenTokSDK sdk, final String session_id) throws Exception {
+		if("token".equals(op)) {
+			return new Operation() {
+				public void run() throws Exception {
+					sdk.generate_token(session_id, RoleConstants.PUBLISHER, null, "user=load");
+				}
+			};
+		} else if("template".equals(op)) {
+			final TokenTemplate template = sdk.create_token_template(session_id, RoleConstants.PUBLISHER, null, "user=load");
+			return new Operation() {
+				public void run() throws Exception {
+					template.mint();
+				}
+			};
+		} else if("session".equals(op)) {
+			return new Operation() {
+				public void run() throws Exception {
+					sdk.create_session();
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown op " + op);
+	}
+
+	static class Result {
+		LatencyHistogram histogram = new LatencyHistogram();
+		long errors;
+		long allocated;
+		long elapsed;
+	}
+
+	private static Result run(final Operation operation, double rate, int threads, final long duration) throws InterruptedException {
+		final long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+		final AtomicLong next = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final LatencyHistogram[] histograms = new LatencyHistogram[threads];
+		final long[] allocated = new long[threads];
+		final CountDownLatch done = new CountDownLatch(threads);
+		final long start = System.nanoTime() + 10000000L;
+		final long end = start + duration;
+
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int t = 0; t < threads; t++) {
+			final int slot = t;
+			histograms[t] = new LatencyHistogram();
+			Thread worker = new Thread("load-" + t) {
+				public void run() {
+					long before = allocatedBytes();
+					LatencyHistogram histogram = histograms[slot];
+					// count down however the loop ends, or done.await() below would hang
+					try {
+						while(true) {
+							long intended;
+							if(interval > 0) {
+								intended = start + next.getAndIncrement() * interval;
+								long wait;
+								while((wait = intended - System.nanoTime()) > 0) {
+									if(wait > 200000) {
+										try {
+											Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+										} catch(InterruptedException e) {
+											return;
+										}
+									} else {
+										Thread.yield();
+									}
+								}
+							} else {
+								intended = System.nanoTime();
+							}
+							if(intended >= end) {
+								break;
+							}
+							try {
+								operation.run();
+							} catch(Exception e) {
+								errors.incrementAndGet();
+							}
+							histogram.record(System.nanoTime() - intended);
+						}
+					} finally {
+						allocated[slot] = allocatedBytes() - before;
+						done.countDown();
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		done.await();
+
+		Result result = new Result();
+		for(int t = 0; t < threads; t++) {
+			result.histogram.merge(histograms[t]);
+			result.allocated += allocated[t];
+		}
+		result.errors = errors.get();
+		result.elapsed = Math.max(1, System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far, or 0 when the JVM does not report it.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.opentok.util.Base64;
+import com.opentok.util.ConsistentHashRing;
+import com.opentok.util.SessionIds;
+
+/**
+ * Benchmarks ConsistentHashRing: lookup throughput from one or more threads, how evenly
+ * sessions spread over the members, and the share of sessions that move when a member
+ * joins or leaves (ideally 1/(n+1) and 1/n). Also times SessionIds.partner_id against a
+ * full base64 decode. Prints one JSON object.
+ *
+ * Usage: java RingBenchmark [--members n] [--virtual-nodes n] [--sessions n] [--threads n] [--duration seconds]
+ */
+class RingBenchmark {
+
+	public static void main(String argv[]) throws Exception {
+		Map<String, String> opts = new HashMap<String, String>();
+		for(int i = 0; i + 1 < argv.length; i += 2) {
+			opts.put(argv[i].replaceFirst("^--", ""), argv[i + 1]);
+		}
+		int member_count = Integer.parseInt(option(opts, "members", "16"));
+		int virtual_nodes = Integer.parseInt(option(opts, "virtual-nodes", "160"));
+		int session_count = Integer.parseInt(option(opts, "sessions", "200000"));
+		int threads = Integer.parseInt(option(opts, "threads", "1"));
+		long duration = Long.parseLong(option(opts, "duration", "3"));
+
+		List<String> members = new ArrayList<String>();
+		for(int m = 0; m < member_count; m++) {
+			members.add("10.0." + (m / 256) + "." + (m % 256) + ":8080");
+		}
+		final ConsistentHashRing ring = new ConsistentHashRing(virtual_nodes, members);
+		final String[] sessions = new String[session_count];
+		for(int i = 0; i < session_count; i++) {
+			sessions[i] = "1_" + Base64.encode("1~1234~Mon Jan 01 00:00:00 PST 2024~" + Math.random() + "~")
+					.replace('+', '-').replace('/', '_').replace("=", "");
+		}
+
+		// Spread
+		Map<String, Integer> load = new HashMap<String, Integer>();
+		String[] before = new String[session_count];
+		for(int i = 0; i < session_count; i++) {
+			before[i] = ring.locate(sessions[i]);
+			Integer count = load.get(before[i]);
+			load.put(before[i], null == count ? 1 : count + 1);
+		}
+		int max = 0;
+		int min = Integer.MAX_VALUE;
+		for(Integer count : load.values()) {
+			max = Math.max(max, count);
+			min = Math.min(min, count);
+		}
+		double even = (double) session_count / member_count;
+
+		// Remapping
+		ring.add("10.255.255.255:8080");
+		int moved_on_add = moved(ring, sessions, before);
+		ring.remove("10.255.255.255:8080");
+		ring.remove(members.get(0));
+		int moved_on_remove = moved(ring, sessions, before);
+		ring.add(members.get(0));
+
+		// Lookup throughput
+		locate(ring, sessions, threads, 1000000000L);
+		double lookups = locate(ring, sessions, threads, duration * 1000000000L);
+
+		// Partner ID extraction
+		long start = System.nanoTime();
+		int checksum = 0;
+		for(int round = 0; round < 5; round++) {
+			for(int i = 0; i < session_count; i++) {
+				checksum += SessionIds.partner_id(sessions[i]).length();
+			}
+		}
+		double partial_ns = (System.nanoTime() - start) / (5.0 * session_count);
+		start = System.nanoTime();
+		for(int round = 0; round < 5; round++) {
+			for(int i = 0; i < session_count; i++) {
+				checksum += new String(Base64.decode(sessions[i].substring(2)), "ISO8859_1").split("~")[1].length();
+			}
+		}
+		double full_ns = (System.nanoTime() - start) / (5.0 * session_count);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"members\":").append(member_count);
+		json.append(",\"virtual_nodes\":").append(virtual_nodes);
+		json.append(",\"sessions\":").append(session_count);
+		json.append(",\"max_load_vs_even\":").append(Math.round(max / even * 1000) / 1000.0);
+		json.append(",\"min_load_vs_even\":").append(Math.round(min / even * 1000) / 1000.0);
+		json.append(",\"moved_on_add\":").append(Math.round(moved_on_add * 10000.0 / session_count) / 10000.0);
+		json.append(",\"ideal_on_add\":").append(Math.round(10000.0 / (member_count + 1)) / 10000.0);
+		json.append(",\"moved_on_remove\":").append(Math.round(moved_on_remove * 10000.0 / session_count) / 10000.0);
+		json.append(",\"ideal_on_remove\":").append(Math.round(10000.0 / member_count) / 10000.0);
+		json.append(",\"threads\":").append(threads);
+		json.append(",\"lookups_per_s\":").append(Math.round(lookups));
+		json.append(",\"partner_id_ns\":").append(Math.round(partial_ns));
+		json.append(",\"full_decode_ns\":").append(Math.round(full_ns));
+		json.append(",\"checksum\":").append(checksum);
+		json.append(",\"jvm\":\"").append(System.getProperty("java.version")).append("\"}");
+		System.out.println(json);
+	}
+
+	private static String option(Map<String, String> opts, String name, String fallback) {
+		String value = opts.get(name);
+		return value != null ? value : fallback;
+	}
+
+	private static int moved(ConsistentHashRing ring, String[] sessions, String[] before) {
+		int moved = 0;
+		for(int i = 0; i < sessions.length; i++) {
+			if(!ring.locate(sessions[i]).equals(before[i])) {
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Looks sessions up on threads threads for duration nanoseconds and returns lookups per second.
+	 */
+	private static double locate(final ConsistentHashRing ring, final String[] sessions, int threads, final long duration) throws InterruptedException {
+		final long[] counts = new long[threads];
+		final long end = System.nanoTime() + duration;
+		Thread[] workers = new Thread[threads];
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++) {
+			final int slot = t;
+			workers[t] = new Thread("ring-" + t) {
+				public void run() {
+					long count = 0;
+					int i = slot;
+					int hits = 0;
+					while((count & 1023) != 0 || System.nanoTime() < end) {
+						if(ring.locate(sessions[i]) != null) {
+							hits++;
+						}
+						if(++i == sessions.length) {
+							i = 0;
+						}
+						count++;
+					}
+					counts[slot] = count + (hits == -1 ? 1 : 0);
+				}
+			};
+			workers[t].start();
+		}
+		long total = 0;
+		for(int t = 0; t < threads; t++) {
+			workers[t].join();
+			total += counts[t];
+		}
+		return total * 1e9 / (System.nanoTime() - start);
+	}
+}
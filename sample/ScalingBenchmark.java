@@ -0,0 +1,133 @@
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.util.Base64;
+import com.opentok.util.TokBoxXML;
+
+/**
+ * Measures how token minting and response parsing throughput scale when one OpenTokSDK is
+ * shared by 1, 2, 4, ... up to --max-threads threads, and prints one JSON object per
+ * operation with the throughput at every thread count and its scaling efficiency:
+ * throughput(n) / (n * throughput(1)). Efficiency can only stay near 1 up to the number
+ * of cores, which is reported alongside.
+ *
+ * Usage: java ScalingBenchmark [--op token|parse|all] [--max-threads n] [--duration seconds] [--warmup seconds]
+ */
+class ScalingBenchmark {
+
+	interface Operation {
+		void run(int i) throws Exception;
+	}
+
+	public static void main(String argv[]) throws Exception {
+		Map<String, String> opts = new HashMap<String, String>();
+		for(int i = 0; i + 1 < argv.length; i += 2) {
+			opts.put(argv[i].replaceFirst("^--", ""), argv[i + 1]);
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		String op = option(opts, "op", "all");
+		int max_threads = Integer.parseInt(option(opts, "max-threads", String.valueOf(Math.max(2, cores * 2))));
+		long duration = Long.parseLong(option(opts, "duration", "3"));
+		long warmup = Long.parseLong(option(opts, "warmup", "2"));
+
+		final OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://127.0.0.1:1");
+		final String session_id = "1_" + Base64.encode("1~1234~scaling~0~").replace('+', '-').replace('/', '_').replace("=", "");
+		final String[] roles = { RoleConstants.PUBLISHER, RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR };
+		final byte[] response = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><session_id>"
+				+ session_id + "</session_id><partner_id>1234</partner_id></Session></sessions>").getBytes("UTF-8");
+
+		if("token".equals(op) || "all".equals(op)) {
+			report("token", cores, max_threads, duration, warmup, new Operation() {
+				public void run(int i) throws Exception {
+					sdk.generate_token(session_id, roles[i % roles.length], null, "user=scaling");
+				}
+			});
+		}
+		if("parse".equals(op) || "all".equals(op)) {
+			report("parse", cores, max_threads, duration, warmup, new Operation() {
+				public void run(int i) throws Exception {
+					new TokBoxXML(new ByteArrayInputStream(response)).getElementValue("session_id", "Session");
+				}
+			});
+		}
+	}
+
+	private static String option(Map<String, String> opts, String name, String fallback) {
+		String value = opts.get(name);
+		return value != null ? value : fallback;
+	}
+
+	private static void report(String op, int cores, int max_threads, long duration, long warmup, Operation operation) throws InterruptedException {
+		if(warmup > 0) {
+			run(operation, cores, warmup * 1000000000L);
+		}
+		StringBuilder json = new StringBuilder();
+		json.append("{\"op\":\"").append(op).append("\",\"cores\":").append(cores).append(",\"levels\":[");
+		double single = 0;
+		for(int threads = 1; threads <= max_threads; threads *= 2) {
+			double throughput = run(operation, threads, duration * 1000000000L);
+			if(threads == 1) {
+				single = throughput;
+			}
+			if(threads > 1) {
+				json.append(",");
+			}
+			json.append("{\"threads\":").append(threads);
+			json.append(",\"throughput\":").append(Math.round(throughput));
+			json.append(",\"efficiency\":").append(Math.round(throughput / (threads * single) * 1000) / 1000.0).append("}");
+		}
+		json.append("],\"jvm\":\"").append(System.getProperty("java.version")).append("\"}");
+		System.out.println(json);
+	}
+
+	/**
+	 * Runs operation on threads threads for duration nanoseconds and returns operations per second.
+	 */
+	private static double run(final Operation operation, int threads, final long duration) throws InterruptedException {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final long[] counts = new long[threads];
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			final int slot = t;
+			workers[t] = new Thread("scaling-" + t) {
+				public void run() {
+					ready.countDown();
+					try {
+						go.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					try {
+						while(!stop.get()) {
+							operation.run((int) count);
+							count++;
+						}
+					} catch(Exception e) {
+						e.printStackTrace();
+					}
+					counts[slot] = count;
+				}
+			};
+			workers[t].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		Thread.sleep(duration / 1000000);
+		stop.set(true);
+		long total = 0;
+		for(int t = 0; t < threads; t++) {
+			workers[t].join();
+			total += counts[t];
+		}
+		return total * 1e9 / (System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.util.Base64;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the OpenTok API, answering /session/create with session IDs that
+ * generate_token accepts for the given API key. Used by the benchmark tools in this directory.
+ * It speaks HTTP/1.1 on url() and cleartext HTTP/2 (h2c) on http2Url().
+ */
+class StubServer {
+	static {
+		// Without it the server's separate header and body writes wait on delayed ACKs
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ServerSocket h2c;
+	private final ExecutorService executor;
+	private final int api_key;
+	private final long latency_ms;
+	private final AtomicLong sessions = new AtomicLong();
+	private final Set<String> clients = Collections.synchronizedSet(new HashSet<String>());
+
+	StubServer(int api_key, long latency_ms, int threads) throws IOException {
+		this.api_key = api_key;
+		this.latency_ms = latency_ms;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.server.setExecutor(executor);
+		this.server.createContext("/session/create", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				createSession(exchange);
+			}
+		});
+		this.h2c = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+	}
+
+	void start() {
+		server.start();
+		Thread acceptor = new Thread("stub-h2c-acceptor") {
+			public void run() {
+				try {
+					while(true) {
+						Socket socket = h2c.accept();
+						Thread connection = new Thread(new H2cConnection(StubServer.this, socket), "stub-h2c-connection");
+						connection.setDaemon(true);
+						connection.start();
+					}
+				} catch(IOException e) {
+					// closed by stop()
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		try {
+			h2c.close();
+		} catch(IOException e) {
+		}
+		executor.shutdown();
+	}
+
+	String url() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	String http2Url() {
+		return "http://127.0.0.1:" + h2c.getLocalPort();
+	}
+
+	/** Number of distinct client connections seen so far. */
+	int connections() {
+		return clients.size();
+	}
+
+	void resetConnections() {
+		clients.clear();
+	}
+
+	String sessionId(long n) {
+		String raw = "1~" + api_key + "~Mon Jan 01 00:00:00 PST 2024~" + n + "~";
+		return "1_" + Base64.encode(raw).replace('+', '-').replace('/', '_').replace("=", "");
+	}
+
+	private void createSession(HttpExchange exchange) throws IOException {
+		clients.add(exchange.getRemoteAddress().toString());
+		InputStream in = exchange.getRequestBody();
+		byte[] skip = new byte[512];
+		while(in.read(skip) != -1);
+
+		byte[] body = sessionResponse();
+		exchange.getResponseHeaders().add("Content-Type", "text/xml");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/** Counts the connection a request arrived on. */
+	void seen(Socket socket) {
+		clients.add(socket.getRemoteSocketAddress().toString());
+	}
+
+	/** Runs a response on the server's worker threads. */
+	void submit(Runnable task) {
+		executor.execute(task);
+	}
+
+	/** Waits out the configured latency and returns the body of a new session. */
+	byte[] sessionResponse() throws IOException {
+		if(latency_ms > 0) {
+			try {
+				Thread.sleep(latency_ms);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		return ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><session_id>"
+				+ sessionId(sessions.incrementAndGet()) + "</session_id><partner_id>" + api_key
+				+ "</partner_id><create_dt>Mon Jan 01 00:00:00 PST 2024</create_dt></Session></sessions>").getBytes("UTF-8");
+	}
+}
@@ -0,0 +1,84 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The default TokenClock: a daemon thread refreshes the time every 10ms, so minting only
+ * reads a volatile field. Second boundaries are seen up to 10ms late.
+ *
+ * The thread starts with the first read, not when the class is loaded, and exits once
+ * nothing has read the clock for about a second, so an idle or undeployed SDK leaves no
+ * thread behind. The next read starts it again; until then reads go to the system clock.
+ */
+class CachedClock implements TokenClock {
+
+	private static final long TICK_MS = 10;
+	private static final int IDLE_TICKS = 100;
+
+	static final CachedClock INSTANCE = new CachedClock();
+
+	private volatile long seconds = -1;    //-1 while no ticker keeps it current
+	private volatile boolean read;         //Set by readers, cleared by the ticker on every tick
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private CachedClock() {
+	}
+
+	public long now_seconds() {
+		if(!read) {
+			read = true;
+			if(!running.get() && running.compareAndSet(false, true)) {
+				start_ticker();
+			}
+		}
+		long s = seconds;
+		return s >= 0 ? s : System.currentTimeMillis() / 1000;
+	}
+
+	private void start_ticker() {
+		Thread ticker = new Thread("opentok-clock") {
+			public void run() {
+				int idle = 0;
+				while(true) {
+					seconds = System.currentTimeMillis() / 1000;
+					if(read) {
+						read = false;
+						idle = 0;
+					} else if(++idle >= IDLE_TICKS) {
+						if(!keep_running()) {
+							return;
+						}
+						idle = 0;
+					}
+					try {
+						Thread.sleep(TICK_MS);
+					} catch(InterruptedException e) {
+						if(!keep_running()) {
+							return;
+						}
+					}
+				}
+			}
+		};
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * Called by a ticker about to exit. A reader that set read after the ticker last looked
+	 * may have seen running still set and skipped starting a new ticker; this one then
+	 * carries on for it, unless a new ticker has already been started.
+	 */
+	private boolean keep_running() {
+		seconds = -1;
+		running.set(false);
+		return read && running.compareAndSet(false, true);
+	}
+}
@@ -0,0 +1,47 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * A point-in-time view of the API requests an OpenTokSDK instance has sent.
+ */
+public class ConnectionStats {
+
+	public final int max_connections;    //Connection limit, 0 when pooling is disabled or with HTTP/2
+	public final int max_streams;        //HTTP/2 stream limit, 0 without HTTP/2 or without a limit
+	public final long requests;          //Requests sent since the SDK was created
+	public final int in_flight;          //Requests currently in progress
+	public final int peak_in_flight;     //Highest number of concurrent requests seen
+	public final long waited_requests;   //Requests that had to wait for a free connection
+	public final long wait_nanos;        //Total time spent waiting for a free connection or stream
+	public final long http2_streams;     //Requests answered on an HTTP/2 stream
+	public final long connections;       //TLS connections opened, -1 when the transport cannot tell
+
+	public ConnectionStats(int max_connections, long requests, int in_flight, int peak_in_flight, long waited_requests, long wait_nanos) {
+		this(max_connections, 0, requests, in_flight, peak_in_flight, waited_requests, wait_nanos, 0, -1);
+	}
+
+	public ConnectionStats(int max_connections, int max_streams, long requests, int in_flight, int peak_in_flight,
+			long waited_requests, long wait_nanos, long http2_streams, long connections) {
+		this.max_connections = max_connections;
+		this.max_streams = max_streams;
+		this.requests = requests;
+		this.in_flight = in_flight;
+		this.peak_in_flight = peak_in_flight;
+		this.waited_requests = waited_requests;
+		this.wait_nanos = wait_nanos;
+		this.http2_streams = http2_streams;
+		this.connections = connections;
+	}
+
+	public String toString() {
+		return "max_connections=" + max_connections + " max_streams=" + max_streams + " requests=" + requests + " in_flight=" + in_flight
+				+ " peak_in_flight=" + peak_in_flight + " waited_requests=" + waited_requests
+				+ " wait_ms=" + (wait_nanos / 1000000) + " http2_streams=" + http2_streams + " connections=" + connections;
+	}
+}
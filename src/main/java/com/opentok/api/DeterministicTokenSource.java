@@ -0,0 +1,55 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when told to and a nonce sequence fixed by a seed, for tests and
+ * benchmarks that need the same tokens on every run. Register it as both:
+ *
+ *     DeterministicTokenSource source = new DeterministicTokenSource(1700000000, 42);
+ *     sdk.set_clock(source);
+ *     sdk.set_nonce_source(source);
+ *
+ * Tokens minted from one thread then come out identical run after run. Nonces stay unique
+ * for 2^32 calls, as with the default source.
+ */
+public class DeterministicTokenSource implements TokenClock, NonceSource {
+
+	private static final int KEY = 0x2545f491;
+
+	private final AtomicLong seconds;
+	private final AtomicInteger sequence = new AtomicInteger();
+	private final int seed;
+
+	/**
+	 * @start_seconds: Unix time the clock starts at.
+	 * @seed: Selects the nonce sequence.
+	 */
+	public DeterministicTokenSource(long start_seconds, int seed) {
+		this.seconds = new AtomicLong(start_seconds);
+		this.seed = seed;
+	}
+
+	public long now_seconds() {
+		return seconds.get();
+	}
+
+	/**
+	 * Moves the clock forward by delta seconds.
+	 */
+	public void advance(long delta) {
+		seconds.addAndGet(delta);
+	}
+
+	public int next_nonce(long create_time) {
+		return StripedNonceSource.scramble(sequence.getAndIncrement(), seed, KEY);
+	}
+}
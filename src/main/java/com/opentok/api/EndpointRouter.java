@@ -0,0 +1,276 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads API calls over several endpoints, sending each call to the healthy endpoint with
+ * the lowest exponentially weighted moving average (EWMA) latency, penalised by its recent
+ * error rate.
+ *
+ * Health is tracked passively from the outcome of real calls; an endpoint that fails several
+ * times in a row is taken out of rotation for a backoff period that grows while it keeps
+ * failing. Optional active checks periodically open a TCP connection to every endpoint and
+ * bring recovered endpoints back early, or take unreachable ones out; they only change whether
+ * an endpoint is in rotation, never its request counts, latency or error rate. When every
+ * endpoint is down the one due back soonest is used anyway.
+ */
+public class EndpointRouter {
+
+	private static final double ALPHA = 0.2;           //Weight of the newest sample in the EWMA
+	private static final int FAILURE_THRESHOLD = 3;    //Consecutive failures before an endpoint is taken out
+	private static final long MIN_BACKOFF = 1000;      //Milliseconds out of rotation after the first trip
+	private static final long MAX_BACKOFF = 60000;
+
+	/**
+	 * A point-in-time view of one endpoint.
+	 */
+	public static class Status {
+		public final String url;
+		public final long latency_nanos;     //EWMA of the time until response headers arrive
+		public final double error_rate;      //EWMA of failures, 0 to 1
+		public final boolean healthy;
+		public final long requests;
+		public final long failures;
+		public final long failed_probes;     //Health checks that could not connect
+
+		Status(String url, long latency_nanos, double error_rate, boolean healthy, long requests, long failures, long failed_probes) {
+			this.url = url;
+			this.latency_nanos = latency_nanos;
+			this.error_rate = error_rate;
+			this.healthy = healthy;
+			this.requests = requests;
+			this.failures = failures;
+			this.failed_probes = failed_probes;
+		}
+
+		public String toString() {
+			return url + " latency_us=" + latency_nanos / 1000 + " error_rate=" + error_rate
+					+ " healthy=" + healthy + " requests=" + requests + " failures=" + failures
+					+ " failed_probes=" + failed_probes;
+		}
+	}
+
+	private static class Endpoint {
+		final String url;
+		double latency_nanos;
+		double error_rate;
+		int consecutive_failures;
+		long backoff;
+		long down_until;
+		long requests;
+		long failures;
+		long failed_probes;
+
+		Endpoint(String url) {
+			this.url = url;
+		}
+
+		synchronized double score(long now) {
+			if(down_until > now) {
+				return Double.MAX_VALUE;
+			}
+			// The 1ms floor keeps the error penalty effective for endpoints with no latency sample yet
+			return (latency_nanos + 1000000) * (1 + 10 * error_rate);
+		}
+
+		synchronized void success(long nanos) {
+			requests++;
+			latency_nanos = latency_nanos == 0 ? nanos : latency_nanos + ALPHA * (nanos - latency_nanos);
+			error_rate = error_rate * (1 - ALPHA);
+			recovered();
+		}
+
+		synchronized void recovered() {
+			consecutive_failures = 0;
+			backoff = 0;
+			down_until = 0;
+		}
+
+		synchronized void failure() {
+			requests++;
+			failures++;
+			error_rate = error_rate + ALPHA * (1 - error_rate);
+			if(++consecutive_failures >= FAILURE_THRESHOLD) {
+				take_out();
+			}
+		}
+
+		/**
+		 * A health check could not connect: out of rotation right away, with the same
+		 * growing backoff as for failed calls, but the call statistics are left alone.
+		 */
+		synchronized void probe_failed() {
+			failed_probes++;
+			take_out();
+		}
+
+		private void take_out() {
+			backoff = backoff == 0 ? MIN_BACKOFF : Math.min(MAX_BACKOFF, backoff * 2);
+			down_until = System.currentTimeMillis() + backoff;
+		}
+
+		synchronized Status status(long now) {
+			return new Status(url, (long) latency_nanos, error_rate, down_until <= now, requests, failures, failed_probes);
+		}
+	}
+
+	private final Endpoint[] endpoints;
+	private ScheduledExecutorService health_checker;
+
+	public EndpointRouter(List<String> urls) {
+		if(urls.isEmpty()) {
+			throw new IllegalArgumentException("At least one endpoint is required");
+		}
+		this.endpoints = new Endpoint[urls.size()];
+		for(int i = 0; i < endpoints.length; i++) {
+			endpoints[i] = new Endpoint(urls.get(i));
+		}
+	}
+
+	/**
+	 * Returns the base URL the next call should go to.
+	 */
+	public String choose() {
+		return choose(null);
+	}
+
+	/**
+	 * Returns the best endpoint other than exclude, for failing over a call. Falls back to
+	 * exclude itself when it is the only endpoint.
+	 */
+	public String choose(String exclude) {
+		long now = System.currentTimeMillis();
+		Endpoint best = null;
+		double best_score = 0;
+		Endpoint soonest = null;
+		for(int i = 0; i < endpoints.length; i++) {
+			Endpoint e = endpoints[i];
+			if(e.url.equals(exclude) && endpoints.length > 1) {
+				continue;
+			}
+			double score = e.score(now);
+			if(score == Double.MAX_VALUE) {
+				if(null == soonest || e.down_until < soonest.down_until) {
+					soonest = e;
+				}
+			} else if(null == best || score < best_score) {
+				best = e;
+				best_score = score;
+			}
+		}
+		return null != best ? best.url : soonest.url;
+	}
+
+	/**
+	 * Records a call that got a response from url after nanos.
+	 */
+	public void record_success(String url, long nanos) {
+		Endpoint e = find(url);
+		if(null != e) {
+			e.success(nanos);
+		}
+	}
+
+	/**
+	 * Records a call to url that failed to connect, timed out or got a server error.
+	 */
+	public void record_failure(String url) {
+		Endpoint e = find(url);
+		if(null != e) {
+			e.failure();
+		}
+	}
+
+	public List<Status> get_status() {
+		long now = System.currentTimeMillis();
+		List<Status> status = new ArrayList<Status>(endpoints.length);
+		for(int i = 0; i < endpoints.length; i++) {
+			status.add(endpoints[i].status(now));
+		}
+		return status;
+	}
+
+	/**
+	 * Starts probing every endpoint with a TCP connect every interval_ms milliseconds.
+	 * A successful probe puts an endpoint back into rotation and a failed one takes it out;
+	 * probes are not counted as requests or failures and do not move the error rate.
+	 */
+	public synchronized void start_health_checks(long interval_ms, final int timeout_ms) {
+		stop_health_checks();
+		health_checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "opentok-health-check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		health_checker.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				check_health(timeout_ms);
+			}
+		}, 0, interval_ms, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Probes every endpoint once, as the periodic health checks do.
+	 */
+	void check_health(int timeout_ms) {
+		for(int i = 0; i < endpoints.length; i++) {
+			if(probe(endpoints[i].url, timeout_ms)) {
+				endpoints[i].recovered();
+			} else {
+				endpoints[i].probe_failed();
+			}
+		}
+	}
+
+	public synchronized void stop_health_checks() {
+		if(null != health_checker) {
+			health_checker.shutdownNow();
+			health_checker = null;
+		}
+	}
+
+	private Endpoint find(String url) {
+		for(int i = 0; i < endpoints.length; i++) {
+			if(endpoints[i].url.equals(url)) {
+				return endpoints[i];
+			}
+		}
+		return null;
+	}
+
+	private static boolean probe(String base_url, int timeout_ms) {
+		Socket socket = new Socket();
+		try {
+			URL url = new URL(base_url);
+			int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+			socket.connect(new InetSocketAddress(url.getHost(), port), timeout_ms);
+			return true;
+		} catch(IOException e) {
+			return false;
+		} finally {
+			try {
+				socket.close();
+			} catch(IOException e) {
+				// nothing to release
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A Transport that answers from canned responses keyed by URL path, without any network I/O.
+ * Meant for tests and for benchmarking the SDK without a server. Every request sent is recorded.
+ */
+public class InMemoryTransport implements Transport {
+
+	private final Map<String, byte[]> bodies = new ConcurrentHashMap<String, byte[]>();
+	private final Map<String, Integer> statuses = new ConcurrentHashMap<String, Integer>();
+	private final List<TransportRequest> requests = new CopyOnWriteArrayList<TransportRequest>();
+	private final boolean record;
+
+	public InMemoryTransport() {
+		this(true);
+	}
+
+	/**
+	 * @record: Whether to keep every request sent; turn off for long benchmark runs.
+	 */
+	public InMemoryTransport(boolean record) {
+		this.record = record;
+	}
+
+	/**
+	 * Answers every request to the given path, e.g. "/session/create", with this status and body.
+	 */
+	public void respond(String path, int status, String body) {
+		try {
+			bodies.put(path, body.getBytes("UTF-8"));
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		statuses.put(path, status);
+	}
+
+	public List<TransportRequest> get_requests() {
+		return new ArrayList<TransportRequest>(requests);
+	}
+
+	public TransportResponse send(TransportRequest request) throws IOException {
+		if(record) {
+			requests.add(request);
+		}
+		String path = new URL(request.url).getPath();
+		byte[] body = bodies.get(path);
+		if(null == body) {
+			throw new IOException("No response registered for " + path);
+		}
+		return new TransportResponse(statuses.get(path), new ByteArrayInputStream(body));
+	}
+
+	public Future<TransportResponse> send_async(final TransportRequest request) {
+		FutureTask<TransportResponse> task = new FutureTask<TransportResponse>(new Callable<TransportResponse>() {
+			public TransportResponse call() throws IOException {
+				return send(request);
+			}
+		});
+		task.run();
+		return task;
+	}
+}
@@ -0,0 +1,66 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * Hooks around token minting, session ID decoding, API calls and response parsing that
+ * JfrInstrumentation turns into JDK Flight Recorder events.
+ *
+ * Events are off unless the JVM runs with -Dopentok.jfr=true and is Java 11 or later;
+ * JfrInstrumentation is compiled separately from src/main/java11 for that release.
+ * Otherwise this no-op base class is the only implementation ever loaded, so every hook
+ * is an empty call the JIT inlines away, and no event object is created.
+ *
+ * A begin_ hook returns an event handle, or null when nothing is recorded; the matching
+ * end_ hook takes that handle back.
+ */
+class Instrumentation {
+
+	static final Instrumentation INSTANCE = load();
+
+	Object begin_token() {
+		return null;
+	}
+
+	void end_token(Object event, String session_id, String role, boolean template, boolean success) {
+	}
+
+	Object begin_session_id() {
+		return null;
+	}
+
+	void end_session_id(Object event, String session_id, boolean valid) {
+	}
+
+	Object begin_http(String endpoint, String path) {
+		return null;
+	}
+
+	void end_http(Object event, int status, int request_bytes, String error) {
+	}
+
+	Object begin_parse() {
+		return null;
+	}
+
+	void end_parse(Object event, String path, long response_bytes, boolean success) {
+	}
+
+	private static Instrumentation load() {
+		if(!Boolean.getBoolean("opentok.jfr")) {
+			return new Instrumentation();
+		}
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Instrumentation) Class.forName("com.opentok.api.JfrInstrumentation").getDeclaredConstructor().newInstance();
+		} catch(Throwable e) {
+			// No Flight Recorder in this JVM, or one older than the Java 11 JfrInstrumentation is built for
+			return new Instrumentation();
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps a durable record of every token the SDK issues, for compliance.
+ * Registered with OpenTokSDK.set_issuance_journal.
+ *
+ * Minting threads only hand a record to a lock-free queue. A background thread drains it in
+ * batches into memory-mapped segment files and flushes them to disk as a group at most once
+ * per flush interval, so a crash loses at most that window. The queue is bounded: when the
+ * writer falls behind, minting threads wait for room rather than records being dropped.
+ *
+ * Segments are named issuance-<sequence>.journal and are never appended to once closed;
+ * a new journal starts a new segment. Layout: magic, version and sequence, then records of
+ * a length followed by create time, expire time, nonce, session id, role and connection data.
+ * Strings are stored as a length-prefixed UTF-8 byte run, with a length of -1 standing for
+ * null. A length of 0 marks the end of the written records. Read them back with replay.
+ */
+public class IssuanceJournal {
+
+	private static final int MAGIC = 0x4f54494a; // "OTIJ"
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final String PREFIX = "issuance-";
+	private static final String SUFFIX = ".journal";
+
+	/**
+	 * Receives the records of a journal being replayed, oldest first.
+	 */
+	public interface Handler {
+		void on_record(IssuanceRecord record);
+	}
+
+	private final File directory;
+	private final int segment_size;
+	private final int capacity;
+	private final long flush_nanos;
+
+	private final ConcurrentLinkedQueue<IssuanceRecord> queue = new ConcurrentLinkedQueue<IssuanceRecord>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicBoolean sleeping = new AtomicBoolean();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean closed;
+	private volatile IOException error;
+
+	private long sequence;
+	private RandomAccessFile file;
+	private MappedByteBuffer segment;
+
+	/**
+	 * Journals into directory with 64MB segments, room for 65536 queued records and a 100ms flush interval.
+	 */
+	public IssuanceJournal(File directory) throws IOException {
+		this(directory, 64 * 1024 * 1024, 65536, 100);
+	}
+
+	/**
+	 * @segment_size: Bytes per segment file, preallocated when the segment is opened.
+	 * @capacity: Records that may wait for the writer before minting threads are held back.
+	 * @flush_interval_ms: Longest time a written record waits to be forced to disk.
+	 */
+	public IssuanceJournal(File directory, int segment_size, int capacity, long flush_interval_ms) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create journal directory " + directory);
+		}
+		this.directory = directory;
+		this.segment_size = Math.max(segment_size, 4096);
+		this.capacity = capacity;
+		this.flush_nanos = flush_interval_ms * 1000000L;
+
+		File[] existing = segments(directory);
+		sequence = existing.length == 0 ? 0 : sequence_of(existing[existing.length - 1]) + 1;
+		open_segment(0);
+
+		writer = new Thread("opentok-issuance-journal") {
+			public void run() {
+				write_loop();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a record of an issued token. Called on the minting thread.
+	 */
+	public void record(IssuanceRecord record) {
+		// Counted as pending before closed is checked: the writer only stops once closed is set
+		// and nothing is pending, so every record that gets past the check is written
+		int queued = pending.incrementAndGet();
+		if(closed || null != error) {
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		if(queued > capacity) {
+			stalls.incrementAndGet();
+			do {
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(50000);
+			} while(pending.get() > capacity && !closed && null == error);
+			if(closed || null != error) {
+				pending.decrementAndGet();
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		queue.offer(record);
+		if(sleeping.get()) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Writes out everything queued so far, forces it to disk and stops the writer.
+	 * Records arriving afterwards are dropped.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(null != error) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Records written to the current or earlier segments, not necessarily flushed yet.
+	 */
+	public long written() {
+		return written.get();
+	}
+
+	/**
+	 * Records dropped because the journal was closed or had failed.
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Times a minting thread had to wait for room in the queue.
+	 */
+	public long stalls() {
+		return stalls.get();
+	}
+
+	public long flushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * The write error that stopped the journal, or null while it is healthy.
+	 */
+	public IOException get_error() {
+		return error;
+	}
+
+	/**
+	 * Reads every segment in directory, oldest first, and passes each record to handler.
+	 * Returns the number of records replayed.
+	 */
+	public static long replay(File directory, Handler handler) throws IOException {
+		long count = 0;
+		File[] files = segments(directory);
+		for(int f = 0; f < files.length; f++) {
+			RandomAccessFile raf = new RandomAccessFile(files[f], "r");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				if(buffer.remaining() < HEADER || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					throw new IOException("Not an issuance journal: " + files[f]);
+				}
+				buffer.getLong();
+				while(buffer.remaining() >= 4) {
+					int length = buffer.getInt();
+					if(length <= 0) {
+						break;
+					}
+					long create_time = buffer.getLong();
+					long expire_time = buffer.getLong();
+					int nonce = buffer.getInt();
+					String session_id = string(buffer);
+					String role = string(buffer);
+					String connection_data = string(buffer);
+					handler.on_record(new IssuanceRecord(session_id, role, create_time, expire_time, nonce, connection_data));
+					count++;
+				}
+			} catch(BufferUnderflowException e) {
+				throw new IOException("Truncated issuance journal: " + files[f]);
+			} finally {
+				raf.close();
+			}
+		}
+		return count;
+	}
+
+	private void write_loop() {
+		long last_flush = System.nanoTime();
+		boolean dirty = false;
+		try {
+			while(true) {
+				IssuanceRecord record = queue.poll();
+				if(null != record) {
+					pending.decrementAndGet();
+					write(record);
+					written.incrementAndGet();
+					dirty = true;
+				}
+				long now = System.nanoTime();
+				if(dirty && now - last_flush >= flush_nanos) {
+					segment.force();
+					flushes.incrementAndGet();
+					last_flush = now;
+					dirty = false;
+				}
+				if(null == record) {
+					if(closed && 0 == pending.get()) {
+						break;
+					}
+					sleeping.set(true);
+					if(queue.isEmpty() && !closed) {
+						LockSupport.parkNanos(dirty ? Math.max(1, flush_nanos - (now - last_flush)) : flush_nanos);
+					}
+					sleeping.set(false);
+				}
+			}
+			if(dirty) {
+				segment.force();
+				flushes.incrementAndGet();
+			}
+		} catch(IOException e) {
+			error = e;
+		} catch(RuntimeException e) {
+			error = new IOException(e.toString());
+		} finally {
+			// Only left behind when the journal failed
+			while(null != queue.poll()) {
+				pending.decrementAndGet();
+				dropped.incrementAndGet();
+			}
+			try {
+				file.close();
+			} catch(IOException e) {
+				// the mapping stays valid until it is collected
+			}
+		}
+	}
+
+	private void write(IssuanceRecord record) throws IOException {
+		byte[] session_id = bytes(record.session_id);
+		byte[] role = bytes(record.role);
+		byte[] connection_data = bytes(record.connection_data);
+		int length = 8 + 8 + 4 + 12 + length(session_id) + length(role) + length(connection_data);
+		if(segment.remaining() < 4 + length) {
+			segment.force();
+			flushes.incrementAndGet();
+			file.close();
+			sequence++;
+			open_segment(4 + length);
+		}
+
+		// The length goes in last, so a record torn by a crash reads as the end of the segment
+		int start = segment.position();
+		segment.position(start + 4);
+		segment.putLong(record.create_time);
+		segment.putLong(record.expire_time);
+		segment.putInt(record.nonce);
+		put(session_id);
+		put(role);
+		put(connection_data);
+		segment.putInt(start, length);
+	}
+
+	private void open_segment(int min_size) throws IOException {
+		int size = Math.max(segment_size, HEADER + min_size + 4);
+		file = new RandomAccessFile(new File(directory, PREFIX + String.format("%016d", sequence) + SUFFIX), "rw");
+		file.setLength(size);
+		segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		segment.putInt(MAGIC);
+		segment.putInt(VERSION);
+		segment.putLong(sequence);
+	}
+
+	private void put(byte[] b) {
+		if(null == b) {
+			segment.putInt(-1);
+		} else {
+			segment.putInt(b.length);
+			segment.put(b);
+		}
+	}
+
+	private static int length(byte[] b) {
+		return null == b ? 0 : b.length;
+	}
+
+	private static byte[] bytes(String s) throws UnsupportedEncodingException {
+		return s == null ? null : s.getBytes("UTF-8");
+	}
+
+	private static String string(MappedByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if(length < 0) {
+			return null;
+		}
+		byte[] b = new byte[length];
+		buffer.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	private static File[] segments(File directory) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+			}
+		});
+		if(null == files) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long sequence_of(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
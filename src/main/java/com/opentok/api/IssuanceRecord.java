@@ -0,0 +1,34 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * One token issued by the SDK, as kept by the IssuanceJournal.
+ */
+public class IssuanceRecord {
+	public final String session_id;
+	public final String role;
+	public final long create_time;
+	public final long expire_time;       //0 when the token carries no explicit expire_time
+	public final int nonce;
+	public final String connection_data; //As passed in, before URL encoding. May be null
+
+	public IssuanceRecord(String session_id, String role, long create_time, long expire_time, int nonce, String connection_data) {
+		this.session_id = session_id;
+		this.role = role;
+		this.create_time = create_time;
+		this.expire_time = expire_time;
+		this.nonce = nonce;
+		this.connection_data = connection_data;
+	}
+
+	public String toString() {
+		return create_time + " " + session_id + " role=" + role + " expire_time=" + expire_time
+				+ " nonce=" + nonce + (null == connection_data ? "" : " connection_data=" + connection_data);
+	}
+}
@@ -0,0 +1,16 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * A built-in Transport that keeps the statistics OpenTokSDK.get_connection_stats reports.
+ */
+interface MeasuredTransport extends Transport {
+
+	ConnectionStats stats();
+}
@@ -0,0 +1,21 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * Supplies the nonce that makes every token unique. Set with OpenTokSDK.set_nonce_source.
+ * Implementations are called from many threads at once.
+ */
+public interface NonceSource {
+
+	/**
+	 * Returns the nonce for a token created at create_time. Two tokens with the same
+	 * create_time must not get the same nonce.
+	 */
+	int next_nonce(long create_time);
+}
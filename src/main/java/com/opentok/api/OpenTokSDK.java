@@ -10,31 +10,208 @@
 
 package com.opentok.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
 
 import com.opentok.api.constants.RoleConstants;
 import com.opentok.api.constants.SessionProperties;
 import com.opentok.exception.OpenTokException;
 import com.opentok.util.Base64;
 import com.opentok.util.GenerateMac;
+import com.opentok.util.SessionIds;
 import com.opentok.util.TokBoxXML;
 
 public class OpenTokSDK {
 
 	protected int api_key;
 	protected String api_secret;
+	protected String api_url;
+
+	private volatile Transport transport = new TokBoxNetConnection();
+	private volatile RequestTracer tracer;
+	private volatile IssuanceJournal journal;
+	private EndpointRouter router;
+	private volatile boolean warm;
+	private final AtomicLong request_counter = new AtomicLong();
+	private volatile TokenClock clock = CachedClock.INSTANCE;
+	private volatile NonceSource nonce_source = new StripedNonceSource();
+	// Initialised with api_secret on first use and cloned for every signing thread, since a Mac
+	// is not thread-safe and setting one up costs more than signing a token
+	private volatile Mac signing_mac;
+	private final ThreadLocal<Mac> thread_macs = new ThreadLocal<Mac>();
 
 	public OpenTokSDK(int api_key, String api_secret) {
+		this(api_key, api_secret, API_Config.API_URL);
+	}
+
+	/**
+	 * @api_url: Base URL of the OpenTok API, e.g. to point the SDK at a staging or stub server.
+	 */
+	public OpenTokSDK(int api_key, String api_secret, String api_url) {
 		this.api_key = api_key;
 		this.api_secret = api_secret.trim();
+		this.api_url = api_url;
+	}
+
+	/**
+	 * @api_urls: Base URLs of equivalent OpenTok API endpoints. Every call goes to the healthy
+	 * endpoint with the lowest latency, failing over to the next one when it cannot be reached.
+	 */
+	public OpenTokSDK(int api_key, String api_secret, List<String> api_urls) {
+		this(api_key, api_secret, first_endpoint(api_urls));
+		this.router = new EndpointRouter(api_urls);
+	}
+
+	private static String first_endpoint(List<String> api_urls) {
+		if(null == api_urls || api_urls.isEmpty()) {
+			throw new IllegalArgumentException("At least one endpoint is required");
+		}
+		return api_urls.get(0);
+	}
+
+	/**
+	 * Sends API calls over at most max_connections persistent connections instead of opening
+	 * a new connection per call. Calls beyond the limit wait for a free connection.
+	 * Pass 0 to go back to one connection per call.
+	 */
+	public void set_connection_pooling(int max_connections) {
+		this.transport = new TokBoxNetConnection(max_connections);
+	}
+
+	/**
+	 * Sends API calls through the Java 11 HttpClient, which negotiates HTTP/2 with each endpoint
+	 * and multiplexes concurrent calls as streams over one connection instead of one connection
+	 * per call. At most max_streams calls are in flight at once, the rest wait for a free
+	 * stream; pass 0 to leave the limit to the server. Endpoints that do not speak HTTP/2 are
+	 * served over HTTP/1.1 by the same client.
+	 *
+	 * Throws UnsupportedOperationException on a runtime older than Java 11 or without the
+	 * java.net.http module, and IllegalStateException when the HttpClient cannot be set up.
+	 */
+	public void set_http2(int max_streams) {
+		try {
+			this.transport = (Transport) Class.forName("com.opentok.api.HttpClientTransport")
+					.getDeclaredConstructor(int.class).newInstance(max_streams);
+		} catch(InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof LinkageError) {
+				throw http2_unsupported(cause);
+			}
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			// e.g. NoSuchAlgorithmException when the default SSLContext is unavailable
+			IllegalStateException failure = new IllegalStateException("Unable to set up the HTTP/2 transport: " + cause);
+			failure.initCause(cause);
+			throw failure;
+		} catch(ClassNotFoundException e) {
+			throw http2_unsupported(e);
+		} catch(LinkageError e) {
+			// A JVM older than the Java 11 HttpClientTransport is built for, or one without java.net.http
+			throw http2_unsupported(e);
+		} catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("HttpClientTransport does not match this SDK: " + e);
+		}
+	}
+
+	private static UnsupportedOperationException http2_unsupported(Throwable e) {
+		UnsupportedOperationException failure = new UnsupportedOperationException("HTTP/2 needs Java 11 or later: " + e);
+		failure.initCause(e);
+		return failure;
+	}
+
+	/**
+	 * Returns request, connection and stream statistics since pooling or HTTP/2 was last
+	 * configured, or null when a custom transport is in use.
+	 */
+	public ConnectionStats get_connection_stats() {
+		Transport t = this.transport;
+		return t instanceof MeasuredTransport ? ((MeasuredTransport) t).stats() : null;
+	}
+
+	/**
+	 * Replaces the HttpURLConnection based transport used for API calls.
+	 */
+	public void set_transport(Transport transport) {
+		this.transport = transport;
+	}
+
+	public Transport get_transport() {
+		return this.transport;
+	}
+
+	/**
+	 * Returns the router spreading calls over the endpoints given at construction,
+	 * or null when the SDK talks to a single endpoint.
+	 */
+	public EndpointRouter get_endpoint_router() {
+		return this.router;
+	}
+
+	/**
+	 * Registers a tracer that receives a phase timing breakdown for every API call.
+	 * Pass null to stop tracing; untraced calls are not timed at all.
+	 */
+	public void set_request_tracer(RequestTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Replaces the clock tokens take their create_time from. Pass null for the default,
+	 * which reads a cached time refreshed every 10ms by a daemon thread that runs only while
+	 * tokens are being minted. expire_time is checked against the same clock, so with the
+	 * default a second boundary can be seen up to 10ms late.
+	 */
+	public void set_clock(TokenClock clock) {
+		this.clock = null == clock ? CachedClock.INSTANCE : clock;
+	}
+
+	public TokenClock get_clock() {
+		return this.clock;
+	}
+
+	/**
+	 * Replaces the source of token nonces. Pass null for the default, which gives every
+	 * thread its own block of a shared sequence and never repeats a nonce within 2^32 tokens.
+	 */
+	public void set_nonce_source(NonceSource nonce_source) {
+		this.nonce_source = null == nonce_source ? new StripedNonceSource() : nonce_source;
+	}
+
+	public NonceSource get_nonce_source() {
+		return this.nonce_source;
+	}
+
+	/**
+	 * Records every token generated from now on, including those minted by templates, in journal.
+	 * Pass null to stop journaling. Closing the journal is left to the caller.
+	 */
+	public void set_issuance_journal(IssuanceJournal journal) {
+		this.journal = journal;
+	}
+
+	public IssuanceJournal get_issuance_journal() {
+		return this.journal;
 	}
 
 	/**
@@ -44,36 +221,40 @@ public class OpenTokSDK {
 *    * @session_id: Specify a session_id to make this token only valid for that session_id. Tokens generated without a valid sessionId will be rejected and the client might be disconnected.
      * @role: One of the constants defined in RoleConstants. Default is publisher, look in the documentation to learn more about roles.
      * @expire_time: Integer timestamp. You can override the default token expire time of 24h by choosing an explicit expire time. Can be up to 7d after create_time.
+     * It is checked against the SDK clock (see set_clock), which by default can lag the system clock by up to 10ms.
 	 */
     public String generate_token(String session_id, String role, Long expire_time, String connection_data) throws OpenTokException {
-	
-        if(session_id == null || session_id == "") {
-            throw new OpenTokException("Null or empty session ID are not valid");   
-        }
-        String decodedSessionId = "";
-        try { 
-            String subSessionId = session_id.substring(2);
-            for (int i = 0; i<3; i++){
-                String newSessionId = subSessionId.concat(repeatString("=",i));
-                decodedSessionId = new String(DatatypeConverter.parseBase64Binary(
-                            newSessionId.replace('-', '+').replace('_', '/')), "ISO8859_1");
-                if (decodedSessionId.contains("~")){ 
-                    break;
-                }
-            }
-            if(!decodedSessionId.split("~")[1].equals(String.valueOf(api_key))) {
-                throw new OpenTokException("An invalid session ID was passed");
-            }
-        } catch (Exception e) {
-            throw new OpenTokException("An invalid session ID was passed");
+		TokenResult result = try_generate_token(session_id, role, expire_time, connection_data);
+		if(!result.ok()) {
+			throw new OpenTokException(result.get_message());
+		}
+		return result.token;
+	}
+
+	/**
+	 * Same as generate_token, but reports invalid input through the returned TokenResult
+	 * instead of throwing, so rejecting untrusted input never pays for an exception.
+	 */
+	public TokenResult try_generate_token(String session_id, String role, Long expire_time, String connection_data) {
+		Object event = Instrumentation.INSTANCE.begin_token();
+		TokenResult result = mint_token(session_id, role, expire_time, connection_data, true);
+		Instrumentation.INSTANCE.end_token(event, session_id, role, false, result.ok());
+		return result;
+	}
+
+	/**
+	 * @record: Whether to journal the token; off only for warm-up tokens, which never leave the process.
+	 */
+	private TokenResult mint_token(String session_id, String role, Long expire_time, String connection_data, boolean record) {
+        TokenResult.Error session_error = check_session_id(session_id);
+        if(session_error != null) {
+            return TokenResult.failure(session_error, null);
         }
         
-        
-        Long create_time = new Long(System.currentTimeMillis() / 1000).longValue();
+        long create_time = this.clock.now_seconds();
 		StringBuilder data_string_builder = new StringBuilder();
 		//Build the string
-		Random random = new Random();
-		int nonce = random.nextInt();
+		int nonce = this.nonce_source.next_nonce(create_time);
 		data_string_builder.append("session_id=");
 		data_string_builder.append(session_id);
 		data_string_builder.append("&create_time=");
@@ -83,32 +264,119 @@ public class OpenTokSDK {
 		data_string_builder.append("&role=");
 		data_string_builder.append(role);
 
-		if(!RoleConstants.SUBSCRIBER.equals(role) &&
-		    !RoleConstants.PUBLISHER.equals(role) &&
-		    !RoleConstants.MODERATOR.equals(role) &&
-		    !"".equals(role))
-		    throw new OpenTokException(role + " is not a recognized role");
+		if(!is_valid_role(role))
+		    return TokenResult.failure(TokenResult.Error.INVALID_ROLE, role);
 
 		if(expire_time != null) {
-		    if(expire_time < (System.currentTimeMillis() / 1000)-1)
-				throw new OpenTokException("Expire time must be in the future");
-		    if(expire_time > (System.currentTimeMillis() / 1000 + 2592000))
-				throw new OpenTokException("Expire time must be in the next 30 days");
+		    if(expire_time < create_time - 1)
+				return TokenResult.failure(TokenResult.Error.EXPIRE_TIME_IN_PAST, null);
+		    if(expire_time > create_time + 2592000)
+				return TokenResult.failure(TokenResult.Error.EXPIRE_TIME_TOO_FAR, null);
 			data_string_builder.append("&expire_time=");
 			data_string_builder.append(expire_time);
 		}
 		if (connection_data != null) {
 		    if(connection_data.length() > 1000)
-		        throw new OpenTokException("Connection data must be less than 1000 characters");
+		        return TokenResult.failure(TokenResult.Error.CONNECTION_DATA_TOO_LONG, null);
 			data_string_builder.append("&connection_data=");
-			try {
-				data_string_builder.append(URLEncoder.encode(connection_data, "UTF-8"));
-			} catch (UnsupportedEncodingException e) {
-				throw new RuntimeException("Error during URL encode of your connection_data.", e);
-			};
+			data_string_builder.append(url_encode(connection_data));
+		}
+
+		try {
+			String token = sign_token(data_string_builder.toString());
+			if(record) {
+				journal(session_id, role, create_time, expire_time == null ? 0 : expire_time, nonce, connection_data);
+			}
+			return TokenResult.success(token);
+		} catch (OpenTokException e) {
+			return TokenResult.failure(TokenResult.Error.SIGNING_FAILED, e.getMessage());
+		}
+	}
+
+	/**
+	 * Validates the invariant parts of a token once and returns a template that mints
+	 * tokens for them, filling in only create_time, nonce and the signature.
+	 *
+	 * @expire_window: Seconds after create_time at which minted tokens expire, or null for the default. Can be up to 30 days.
+	 */
+	public TokenTemplate create_token_template(String session_id, String role, Long expire_window, String connection_data) throws OpenTokException {
+		validate_session_id(session_id);
+		validate_role(role);
+		if(expire_window != null) {
+			if(expire_window < 0)
+				throw new OpenTokException("Expire window must not be negative");
+			if(expire_window > 2592000)
+				throw new OpenTokException("Expire window must be at most 30 days");
+		}
+		return new TokenTemplate(this, session_id, role, expire_window, connection_data,
+				connection_data == null ? null : encode_connection_data(connection_data));
+	}
+
+	void journal(String session_id, String role, long create_time, long expire_time, int nonce, String connection_data) {
+		IssuanceJournal journal = this.journal;
+		if(null != journal) {
+			journal.record(new IssuanceRecord(session_id, role, create_time, expire_time, nonce, connection_data));
 		}
+	}
+
+	void validate_session_id(String session_id) throws OpenTokException {
+		TokenResult.Error error = check_session_id(session_id);
+		if(error != null) {
+			throw new OpenTokException(TokenResult.failure(error, null).get_message());
+		}
+	}
+
+	/**
+	 * Checks that the session ID belongs to this API key without throwing: the part of the
+	 * decoded ID between the first and second '~' must be the key.
+	 */
+	TokenResult.Error check_session_id(String session_id) {
+		Object event = Instrumentation.INSTANCE.begin_session_id();
+		TokenResult.Error error = decode_session_id(session_id);
+		Instrumentation.INSTANCE.end_session_id(event, session_id, null == error);
+		return error;
+	}
+
+	private TokenResult.Error decode_session_id(String session_id) {
+        if(session_id == null || session_id.length() == 0) {
+            return TokenResult.Error.EMPTY_SESSION_ID;
+        }
+        if(!String.valueOf(api_key).equals(SessionIds.partner_id(session_id))) {
+            return TokenResult.Error.INVALID_SESSION_ID;
+        }
+        return null;
+	}
+
+	static boolean is_valid_role(String role) {
+		return RoleConstants.SUBSCRIBER.equals(role) ||
+		    RoleConstants.PUBLISHER.equals(role) ||
+		    RoleConstants.MODERATOR.equals(role) ||
+		    "".equals(role);
+	}
 
+	static void validate_role(String role) throws OpenTokException {
+		if(!is_valid_role(role))
+		    throw new OpenTokException(role + " is not a recognized role");
+	}
 
+	static String encode_connection_data(String connection_data) throws OpenTokException {
+	    if(connection_data.length() > 1000)
+	        throw new OpenTokException("Connection data must be less than 1000 characters");
+		return url_encode(connection_data);
+	}
+
+	private static String url_encode(String connection_data) {
+		try {
+			return URLEncoder.encode(connection_data, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("Error during URL encode of your connection_data.", e);
+		}
+	}
+
+	/**
+	 * Signs the token data string and wraps it into the final T1 token.
+	 */
+	String sign_token(String data_string) throws OpenTokException {
 		StringBuilder token_string_builder = new StringBuilder();
 		try {
 			token_string_builder.append("T1==");
@@ -119,10 +387,10 @@ public class OpenTokSDK {
 
 			inner_builder.append("&sig=");
 
-			inner_builder.append(GenerateMac.calculateRFC2104HMAC(data_string_builder.toString(),
-																  this.api_secret));
+			inner_builder.append(GenerateMac.calculateRFC2104HMAC(data_string,
+																  thread_mac()));
 			inner_builder.append(":");
-			inner_builder.append(data_string_builder.toString());
+			inner_builder.append(data_string);
 
 			token_string_builder.append(Base64.encode(inner_builder.toString()));
 
@@ -134,6 +402,23 @@ public class OpenTokSDK {
 	}
     
 
+	private Mac thread_mac() throws java.security.SignatureException {
+		Mac mac = thread_macs.get();
+		if(null == mac) {
+			Mac prototype = this.signing_mac;
+			if(null == prototype) {
+				prototype = this.signing_mac = GenerateMac.new_mac(this.api_secret);
+			}
+			try {
+				mac = (Mac) prototype.clone();
+			} catch(CloneNotSupportedException e) {
+				mac = GenerateMac.new_mac(this.api_secret);
+			}
+			thread_macs.set(mac);
+		}
+		return mac;
+	}
+
 	/**
 	 * Creates a new session.
 	 * @location: IP address to geolocate the call around.
@@ -141,13 +426,16 @@ public class OpenTokSDK {
 	 */
 
     public OpenTokSession create_session(String location, SessionProperties properties) throws OpenTokException {
-		Map<String, String> params;
-		if(properties != null)
-			params = properties.to_map();
-		else
-			params = new HashMap<String, String>();
+		return create_session_template(properties).create_session(location);
+	}
 
-		return this.create_session(location, params);
+	/**
+	 * Encodes the session properties into a request body once and returns a template that
+	 * creates sessions with them, appending only the location to each request.
+	 * @session_properties: Optional, null for the defaults.
+	 */
+	public SessionTemplate create_session_template(SessionProperties properties) throws OpenTokException {
+		return new SessionTemplate(this, encode_form(properties != null ? properties.to_map() : new HashMap<String, String>()));
 	}
 
 	/**
@@ -169,17 +457,25 @@ public class OpenTokSDK {
 	}
 
     public OpenTokSession create_session() throws OpenTokException {
-		return create_session(null, new HashMap<String, String>());
+		return create_session(null, (SessionProperties) null);
 	}
 
 
     public OpenTokSession create_session(String location) throws OpenTokException {
-		return create_session(location, new HashMap<String, String>());
+		return create_session(location, (SessionProperties) null);
 	}
 
+	/**
+	 * The params map is left untouched, so it can be shared between threads.
+	 */
     public OpenTokSession create_session(String location, Map<String, String> params) throws OpenTokException {
-		params.put("location", location);
-		TokBoxXML xmlResponse = this.do_request("/session/create", params);
+		Map<String, String> request_params = new HashMap<String, String>(params);
+		request_params.put("location", location);
+		return create_session(encode_form(request_params));
+	}
+
+	OpenTokSession create_session(byte[] body) throws OpenTokException {
+		TokBoxXML xmlResponse = this.do_request("/session/create", body);
 		if(xmlResponse.hasElement("error", "Errors")) {
 			throw new OpenTokException("Unable to create session");
 		}
@@ -187,18 +483,353 @@ public class OpenTokSDK {
 		return new OpenTokSession(session_id);
 	}
     
-    private static String repeatString(String str, int times){
-        StringBuilder ret = new StringBuilder();
-        for(int i = 0;i < times;i++) ret.append(str);
-        return ret.toString();
-    }
+	/**
+	 * Creates a new session without blocking on the API call.
+	 * The returned future fails with an ExecutionException wrapping an OpenTokException.
+	 */
+	public Future<OpenTokSession> create_session_async(String location, SessionProperties properties) throws OpenTokException {
+		return create_session_template(properties).create_session_async(location);
+	}
+
+	Future<OpenTokSession> create_session_async(byte[] body) throws OpenTokException {
+		final Future<TokBoxXML> response = this.do_request_async("/session/create", body);
+		return new Future<OpenTokSession>() {
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return response.cancel(mayInterruptIfRunning);
+			}
+
+			public boolean isCancelled() {
+				return response.isCancelled();
+			}
+
+			public boolean isDone() {
+				return response.isDone();
+			}
+
+			public OpenTokSession get() throws InterruptedException, ExecutionException {
+				return new OpenTokSession(response.get().getElementValue("session_id", "Session"));
+			}
+
+			public OpenTokSession get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+				return new OpenTokSession(response.get(timeout, unit).getElementValue("session_id", "Session"));
+			}
+		};
+	}
+    
+	/**
+	 * Exercises the token signing, URL and form encoding and response parsing paths, and opens a
+	 * connection to every endpoint, until per-call latency settles or budget_ms runs out.
+	 * This pulls JCE provider setup, the XML parser factory lookup, JIT compilation and
+	 * connection setup out of the first real calls. No request is sent, no session is created
+	 * and no token leaves the process; warm-up tokens are not journaled and emit no Flight
+	 * Recorder events. Connections are only opened with the default transport.
+	 */
+	public WarmupReport warm_up(long budget_ms) {
+		long start = System.currentTimeMillis();
+		long deadline = start + budget_ms;
+
+		int connected = 0;
+		int failed = 0;
+		if(this.transport instanceof TokBoxNetConnection) {
+			TokBoxNetConnection connection = (TokBoxNetConnection) this.transport;
+			List<String> endpoints = new ArrayList<String>();
+			if(null == this.router) {
+				endpoints.add(this.api_url);
+			} else {
+				for(Iterator<EndpointRouter.Status> i = this.router.get_status().iterator(); i.hasNext(); ) {
+					endpoints.add(i.next().url);
+				}
+			}
+			for(Iterator<String> i = endpoints.iterator(); i.hasNext(); ) {
+				int timeout = (int) Math.max(1, Math.min(5000, deadline - System.currentTimeMillis()));
+				if(connection.preconnect(i.next(), timeout)) {
+					connected++;
+				} else {
+					failed++;
+				}
+			}
+		}
+
+		// A session ID for this API key that never reaches the API
+		String session_id = "1_" + Base64.encode("1~" + this.api_key + "~warmup~0~").replace('+', '-').replace('/', '_').replace("=", "");
+		String[] roles = { RoleConstants.PUBLISHER, RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR };
+		byte[] response;
+		try {
+			response = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sessions><Session><session_id>"
+					+ session_id + "</session_id><partner_id>" + this.api_key + "</partner_id></Session></sessions>").getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		// Rounds of 200 calls; latency counts as settled after three rounds within 10% of each other
+		final int round = 200;
+		long iterations = 0;
+		long token_nanos = 0;
+		long parse_nanos = 0;
+		long previous = 0;
+		int settled = 0;
+		try {
+			while(settled < 3 && System.currentTimeMillis() < deadline) {
+				long mark = System.nanoTime();
+				for(int i = 0; i < round; i++) {
+					// Straight to mint_token: warm-up tokens are neither journaled nor reported to instrumentation
+					TokenResult result = mint_token(session_id, roles[i % roles.length], null, "warmup=" + i, false);
+					if(!result.ok()) {
+						throw new OpenTokException(result.get_message());
+					}
+				}
+				token_nanos = (System.nanoTime() - mark) / round;
+
+				mark = System.nanoTime();
+				for(int i = 0; i < round / 4; i++) {
+					Map<String, String> params = new HashMap<String, String>();
+					params.put("location", "127.0.0." + i);
+					build_request(this.api_url, "/session/create", encode_form(params), null);
+					new TokBoxXML(new ByteArrayInputStream(response)).getElementValue("session_id", "Session");
+				}
+				parse_nanos = (System.nanoTime() - mark) / (round / 4);
+
+				long current = token_nanos + parse_nanos;
+				settled = previous > 0 && Math.abs(current - previous) * 10 <= previous ? settled + 1 : 0;
+				previous = current;
+				iterations++;
+			}
+		} catch(OpenTokException e) {
+			throw new RuntimeException("Warm-up failed: " + e.getMessage(), e);
+		}
+
+		this.warm = settled >= 3;
+		return new WarmupReport(this.warm, iterations, System.currentTimeMillis() - start, token_nanos, parse_nanos, connected, failed);
+	}
+
+	/**
+	 * Whether the last warm_up reached steady-state latency, e.g. for a readiness probe.
+	 */
+	public boolean is_warm() {
+		return this.warm;
+	}
 
 	protected TokBoxXML do_request(String url, Map<String, String> params) throws OpenTokException {
-		TokBoxNetConnection n = new TokBoxNetConnection();
+		return do_request(url, encode_form(params));
+	}
+
+	TokBoxXML do_request(String url, byte[] body) throws OpenTokException {
+		RequestTracer tracer = this.tracer;
+		RequestTiming timing = start_timing(tracer, url);
+		TransportResponse response;
+		try {
+			if(null == this.router) {
+				response = send(this.api_url, url, body, timing);
+			} else {
+				response = send_routed(url, body, timing);
+			}
+		} catch(IOException e) {
+			throw end_timing(tracer, timing, new OpenTokException(e.toString()));
+		}
+		return parse_response(response, url, tracer, timing);
+	}
+
+	/**
+	 * Sends the request to the endpoint the router picks, retrying once on another endpoint
+	 * when the first cannot be connected to. Any other I/O failure, such as a read timeout,
+	 * may have reached the server after the session was created there, so it is rethrown
+	 * rather than retried. Server errors count against the endpoint but are returned.
+	 */
+	private TransportResponse send_routed(String url, byte[] body, RequestTiming timing) throws IOException {
+		String endpoint = this.router.choose();
+		for(int attempt = 0; ; attempt++) {
+			long start = System.nanoTime();
+			try {
+				TransportResponse response = send(endpoint, url, body, timing);
+				if(response.status >= 500) {
+					this.router.record_failure(endpoint);
+				} else {
+					this.router.record_success(endpoint, System.nanoTime() - start);
+				}
+				return response;
+			} catch(IOException e) {
+				this.router.record_failure(endpoint);
+				if(attempt > 0 || !(e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException)) {
+					throw e;
+				}
+				String next = this.router.choose(endpoint);
+				if(next.equals(endpoint)) {
+					throw e;
+				}
+				endpoint = next;
+			}
+		}
+	}
+
+	private TransportResponse send(String endpoint, String url, byte[] body, RequestTiming timing) throws IOException {
+		Object event = Instrumentation.INSTANCE.begin_http(endpoint, url);
+		try {
+			TransportResponse response = this.transport.send(build_request(endpoint, url, body, timing));
+			Instrumentation.INSTANCE.end_http(event, response.status, body.length, null);
+			return response;
+		} catch(IOException e) {
+			Instrumentation.INSTANCE.end_http(event, -1, body.length, e.toString());
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends the request through the transport's asynchronous path. The XML response is
+	 * parsed by the thread calling get() on the returned future. With several endpoints the
+	 * router picks one, but this path neither fails over nor feeds latency back to it.
+	 * It records no Flight Recorder API request event, only the parse event.
+	 */
+	protected Future<TokBoxXML> do_request_async(String url, Map<String, String> params) throws OpenTokException {
+		return do_request_async(url, encode_form(params));
+	}
+
+	Future<TokBoxXML> do_request_async(final String url, byte[] body) throws OpenTokException {
+		final RequestTracer tracer = this.tracer;
+		final RequestTiming timing = start_timing(tracer, url);
+		String endpoint = null == this.router ? this.api_url : this.router.choose();
+		final Future<TransportResponse> response;
+		try {
+			response = this.transport.send_async(build_request(endpoint, url, body, timing));
+		} catch(RuntimeException e) {
+			// e.g. a RejectedExecutionException from a shut down executor
+			throw end_timing(tracer, timing, new OpenTokException(e.toString()));
+		}
+		return new Future<TokBoxXML>() {
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				return response.cancel(mayInterruptIfRunning);
+			}
+
+			public boolean isCancelled() {
+				return response.isCancelled();
+			}
+
+			public boolean isDone() {
+				return response.isDone();
+			}
+
+			// The response body can be parsed only once, so the first get() to complete keeps
+			// the outcome for every later one and on_end fires exactly once
+			private boolean settled;
+			private TokBoxXML xml;
+			private ExecutionException failure;
+
+			public TokBoxXML get() throws InterruptedException, ExecutionException {
+				TransportResponse r;
+				try {
+					r = response.get();
+				} catch(ExecutionException e) {
+					return settle(null, e);
+				}
+				return settle(r, null);
+			}
+
+			public TokBoxXML get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+				TransportResponse r;
+				try {
+					r = response.get(timeout, unit);
+				} catch(ExecutionException e) {
+					return settle(null, e);
+				}
+				return settle(r, null);
+			}
+
+			private synchronized TokBoxXML settle(TransportResponse r, ExecutionException e) throws ExecutionException {
+				if(!settled) {
+					settled = true;
+					if(null != e) {
+						failure = e;
+						if(!(e.getCause() instanceof OpenTokException)) {
+							end_timing(tracer, timing, new OpenTokException(e.getCause().toString()));
+						}
+					} else {
+						try {
+							xml = parse_response(r, url, tracer, timing);
+						} catch(OpenTokException x) {
+							failure = new ExecutionException(x);
+						}
+					}
+				}
+				if(null != failure) {
+					throw failure;
+				}
+				return xml;
+			}
+		};
+	}
+
+	private TransportRequest build_request(String endpoint, String url, byte[] body, RequestTiming timing) {
 		Map<String, String> headers = new HashMap<String, String>();
 		headers.put("X-TB-PARTNER-AUTH", this.api_key + ":" + this.api_secret);
 
-		return new TokBoxXML(n.request(API_Config.API_URL + url, params, headers));
+		// Every body passed here is built for the call or a template's, which is never modified
+		return new TransportRequest(endpoint + url, headers,
+				"application/x-www-form-urlencoded; charset=UTF-8", body, timing, false);
+	}
+
+	static byte[] encode_form(Map<String, String> params) throws OpenTokException {
+		try {
+			return TokBoxNetConnection.encodeForm(params);
+		} catch(UnsupportedEncodingException e) {
+			throw new OpenTokException(e.toString());
+		}
+	}
+
+	private RequestTiming start_timing(RequestTracer tracer, String url) {
+		if(null == tracer) {
+			return null;
+		}
+		RequestTiming timing = new RequestTiming(this.api_key + "-" + request_counter.incrementAndGet(), url);
+		tracer.on_start(timing);
+		return timing;
+	}
+
+	private static OpenTokException end_timing(RequestTracer tracer, RequestTiming timing, OpenTokException error) {
+		if(null != timing) {
+			timing.total = System.nanoTime() - timing.start_nanos;
+			tracer.on_end(timing, error);
+		}
+		return error;
+	}
+
+	private static TokBoxXML parse_response(TransportResponse response, String url, RequestTracer tracer, RequestTiming timing) throws OpenTokException {
+		Object event = Instrumentation.INSTANCE.begin_parse();
+		TimedInputStream body = null;
+		boolean parsed = false;
+		try {
+			if(null == response.body) {
+				throw new OpenTokException("Empty response with HTTP status " + response.status);
+			}
+			if(null == timing && null == event) {
+				TokBoxXML xml = new TokBoxXML(response.body);
+				parsed = true;
+				return xml;
+			}
+
+			body = new TimedInputStream(response.body);
+			long start = System.nanoTime();
+			try {
+				TokBoxXML xml = new TokBoxXML(body);
+				parsed = true;
+				return xml;
+			} finally {
+				if(null != timing) {
+					timing.body_read = body.nanos;
+					timing.parse = System.nanoTime() - start - body.nanos;
+				}
+			}
+		} catch(OpenTokException e) {
+			throw end_timing(tracer, timing, e);
+		} finally {
+			try {
+				response.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+			if(null != timing && timing.total < 0) {
+				end_timing(tracer, timing, null);
+			}
+			Instrumentation.INSTANCE.end_parse(event, url, null == body ? 0 : body.bytes, parsed);
+		}
 	}
 
 	protected static String join(List<String> s, String delimiter) throws java.io.UnsupportedEncodingException{
@@ -0,0 +1,148 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import com.opentok.util.SessionSnapshot;
+
+/**
+ * A buffer of ready, unused sessions created with the same location and properties.
+ *
+ * The inventory can be saved to a memory-mapped snapshot on shutdown and restored on
+ * startup, so a restarted node serves its first users from the previous inventory
+ * instead of rebuilding it through /session/create.
+ */
+public class OpenTokSessionPool {
+
+	private final OpenTokSDK sdk;
+	private final String location;
+	private final Map<String, String> properties;
+	private final long max_age;
+	private final LinkedBlockingQueue<SessionSnapshot.Entry> sessions = new LinkedBlockingQueue<SessionSnapshot.Entry>();
+
+	/**
+	 * @location: IP address to geolocate the sessions around, may be null.
+	 * @properties: Optional session properties shared by every pooled session.
+	 * @max_age: Milliseconds after creation past which a pooled session is discarded.
+	 */
+	public OpenTokSessionPool(OpenTokSDK sdk, String location, SessionProperties properties, long max_age) {
+		this.sdk = sdk;
+		this.location = location;
+		this.properties = properties != null ? properties.to_map() : new HashMap<String, String>();
+		this.max_age = max_age;
+	}
+
+	/**
+	 * Returns a pooled session, or creates one on the spot when the pool is empty.
+	 */
+	public OpenTokSession take() throws OpenTokException {
+		long min_create_time = System.currentTimeMillis() - max_age;
+		SessionSnapshot.Entry entry;
+		while((entry = sessions.poll()) != null) {
+			if(entry.create_time >= min_create_time) {
+				return new OpenTokSession(entry.session_id);
+			}
+		}
+		return new OpenTokSession(create().session_id);
+	}
+
+	/**
+	 * Creates sessions until the pool holds at least target of them.
+	 * Returns the number of sessions created.
+	 */
+	public int fill(int target) throws OpenTokException {
+		int created = 0;
+		while(sessions.size() < target) {
+			sessions.add(create());
+			created++;
+		}
+		return created;
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Writes the current inventory to a memory-mapped snapshot file.
+	 */
+	public void save(File file) throws OpenTokException {
+		try {
+			SessionSnapshot.write(file, new ArrayList<SessionSnapshot.Entry>(sessions));
+		} catch(IOException e) {
+			throw new OpenTokException("Unable to save session snapshot: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds the sessions from a snapshot file that match this pool's location and properties
+	 * and are younger than max_age, skipping sessions already in the pool. The restored
+	 * sessions are removed from the snapshot, so a later restore never hands them out a
+	 * second time: the file is rewritten with the entries left for other pools, or deleted
+	 * once none are left. Returns the number of sessions restored.
+	 */
+	public int restore(File file) throws OpenTokException {
+		List<SessionSnapshot.Entry> entries;
+		try {
+			entries = SessionSnapshot.read(file, System.currentTimeMillis() - max_age);
+		} catch(IOException e) {
+			throw new OpenTokException("Unable to restore session snapshot: " + e.getMessage());
+		}
+		if(entries.isEmpty()) {
+			return 0;
+		}
+
+		Set<String> pooled = new HashSet<String>();
+		for(Iterator<SessionSnapshot.Entry> i = sessions.iterator(); i.hasNext(); ) {
+			pooled.add(i.next().session_id);
+		}
+		List<SessionSnapshot.Entry> restored = new ArrayList<SessionSnapshot.Entry>();
+		List<SessionSnapshot.Entry> remaining = new ArrayList<SessionSnapshot.Entry>();
+		for(Iterator<SessionSnapshot.Entry> i = entries.iterator(); i.hasNext(); ) {
+			SessionSnapshot.Entry entry = i.next();
+			if(!(location == null ? entry.location == null : location.equals(entry.location))
+					|| !properties.equals(entry.properties)) {
+				remaining.add(entry);
+			} else if(pooled.add(entry.session_id)) {
+				restored.add(entry);
+			}
+		}
+
+		// Consume the snapshot before pooling anything, so a failure restores nothing twice
+		try {
+			if(remaining.isEmpty()) {
+				if(!file.delete() && file.exists()) {
+					throw new IOException("Unable to delete " + file);
+				}
+			} else {
+				SessionSnapshot.write(file, remaining);
+			}
+		} catch(IOException e) {
+			throw new OpenTokException("Unable to consume session snapshot: " + e.getMessage());
+		}
+		sessions.addAll(restored);
+		return restored.size();
+	}
+
+	private SessionSnapshot.Entry create() throws OpenTokException {
+		OpenTokSession session = sdk.create_session(location, new HashMap<String, String>(properties));
+		return new SessionSnapshot.Entry(session.session_id, location, properties, System.currentTimeMillis());
+	}
+}
@@ -0,0 +1,38 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * Where the time of one API call went, in nanoseconds. Filled in while the call runs and
+ * handed to the RequestTracer when it ends. Phases a transport cannot observe stay at -1;
+ * on a reused keep-alive connection connect is close to zero.
+ */
+public class RequestTiming {
+
+	public final String correlation_id;
+	public final String url;
+	public final long start_nanos;
+
+	public long connect = -1;      //Host name lookup, TCP connect and TLS handshake
+	public long first_byte = -1;   //Sending the request until the response status arrives
+	public long body_read = -1;    //Reading the response body
+	public long parse = -1;        //DOM parsing, excluding the time spent reading the body
+	public long total = -1;        //The whole call, as seen by the SDK
+	public int status = -1;        //HTTP status of the response
+
+	public RequestTiming(String correlation_id, String url) {
+		this.correlation_id = correlation_id;
+		this.url = url;
+		this.start_nanos = System.nanoTime();
+	}
+
+	public String toString() {
+		return correlation_id + " " + url + " status=" + status + " connect=" + connect
+				+ " first_byte=" + first_byte + " body_read=" + body_read + " parse=" + parse + " total=" + total;
+	}
+}
@@ -0,0 +1,29 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Receives span-style callbacks around every API call an OpenTokSDK makes.
+ * Registered with OpenTokSDK.set_request_tracer; calls are not timed when none is set.
+ *
+ * Callbacks run on the thread making the call and should return quickly.
+ */
+public interface RequestTracer {
+
+	/**
+	 * Called before the request is sent. Only correlation_id, url and start_nanos are set.
+	 */
+	void on_start(RequestTiming timing);
+
+	/**
+	 * Called once the response has been parsed, or the call failed with error.
+	 */
+	void on_end(RequestTiming timing, OpenTokException error);
+}
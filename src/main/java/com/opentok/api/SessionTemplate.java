@@ -0,0 +1,54 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Future;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Creates sessions sharing one set of SessionProperties.
+ *
+ * Created through OpenTokSDK.create_session_template, which form encodes the properties
+ * once. Instances are immutable and safe to share across threads.
+ */
+public class SessionTemplate {
+
+	private final OpenTokSDK sdk;
+	private final byte[] body;
+
+	SessionTemplate(OpenTokSDK sdk, byte[] body) {
+		this.sdk = sdk;
+		this.body = body;
+	}
+
+	/**
+	 * Creates a new session.
+	 * @location: IP address to geolocate the call around, or null.
+	 */
+	public OpenTokSession create_session(String location) throws OpenTokException {
+		return sdk.create_session(with_location(location));
+	}
+
+	/**
+	 * Creates a new session without blocking on the API call.
+	 * The returned future fails with an ExecutionException wrapping an OpenTokException.
+	 */
+	public Future<OpenTokSession> create_session_async(String location) throws OpenTokException {
+		return sdk.create_session_async(with_location(location));
+	}
+
+	private byte[] with_location(String location) throws OpenTokException {
+		try {
+			return TokBoxNetConnection.appendForm(body, "location", location);
+		} catch(UnsupportedEncodingException e) {
+			throw new OpenTokException(e.toString());
+		}
+	}
+}
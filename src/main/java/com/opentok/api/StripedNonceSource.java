@@ -0,0 +1,59 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default NonceSource. Every thread takes blocks of 1024 sequence numbers from a shared
+ * counter and hands them out without synchronisation, so threads only meet once per block.
+ * Sequence numbers go through a keyed bijection on int, so nonces look random but never
+ * repeat until 2^32 of them have been issued by one instance, whatever the create_time.
+ */
+class StripedNonceSource implements NonceSource {
+
+	private static final int BLOCK = 1024;
+
+	private final AtomicInteger blocks = new AtomicInteger();
+	private final int offset;
+	private final int key;
+	private final ThreadLocal<int[]> stripe = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[2];   //Next sequence number, end of block
+		}
+	};
+
+	StripedNonceSource() {
+		Random random = new Random();
+		this.offset = random.nextInt();
+		this.key = random.nextInt() | 1;
+	}
+
+	public int next_nonce(long create_time) {
+		int[] s = stripe.get();
+		if(s[0] == s[1]) {
+			s[0] = blocks.getAndAdd(BLOCK);
+			s[1] = s[0] + BLOCK;
+		}
+		return scramble(s[0]++, offset, key);
+	}
+
+	/**
+	 * A bijection on int (adding, multiplying by an odd key and xor-shifting are all
+	 * invertible), so distinct inputs always give distinct outputs.
+	 */
+	static int scramble(int x, int offset, int key) {
+		x += offset;
+		x *= key;
+		x ^= x >>> 16;
+		x *= 0x45d9f3b;
+		x ^= x >>> 16;
+		return x;
+	}
+}
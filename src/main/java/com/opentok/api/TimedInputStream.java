@@ -0,0 +1,63 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Accumulates the time spent blocked in read calls, to tell body reading apart from parsing,
+ * and counts the bytes read.
+ */
+class TimedInputStream extends FilterInputStream {
+
+	long nanos;
+	long bytes;
+
+	TimedInputStream(InputStream in) {
+		super(in);
+	}
+
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		try {
+			int b = super.read();
+			if(b >= 0) {
+				bytes++;
+			}
+			return b;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		try {
+			int n = super.read(b, off, len);
+			if(n > 0) {
+				bytes += n;
+			}
+			return n;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	public long skip(long n) throws IOException {
+		long start = System.nanoTime();
+		try {
+			long skipped = super.skip(n);
+			bytes += skipped;
+			return skipped;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+}
@@ -1,4 +1,3 @@
-
 /*!
 * OpenTok Java Library
 * http://www.tokbox.com/
@@ -8,93 +7,342 @@
 */
 package com.opentok.api;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 import java.net.*;
 import java.io.*;
 
 
-class TokBoxNetConnection {
+/**
+ * The default Transport, built on HttpURLConnection.
+ */
+class TokBoxNetConnection implements MeasuredTransport {
 
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
 
-	public String request(String reqString, Map<String, String> paramList, Map<String, String> headers){
+	private static ExecutorService async_executor;
 
-		StringBuilder returnString = new StringBuilder();
+	private final int max_connections;
+	private final Semaphore permits;
 
-		URL url = null;
-		HttpURLConnection conn = null;
-		BufferedReader br = null;
-		OutputStreamWriter wr = null;
-		BufferedWriter bufWriter = null;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong waited_requests = new AtomicLong();
+	private final AtomicLong wait_nanos = new AtomicLong();
+	private final AtomicInteger in_flight = new AtomicInteger();
+	private final AtomicInteger peak_in_flight = new AtomicInteger();
 
-		try {
+	TokBoxNetConnection() {
+		this(0);
+	}
 
-			StringBuilder dataString = new StringBuilder();
+	/**
+	 * @max_connections: When positive, at most this many requests are in flight at once and
+	 * their connections are kept alive for reuse, so concurrent calls share a small set of
+	 * persistent connections. The JDK keeps up to http.maxConnections idle connections per
+	 * host (5 by default); raise it when pooling more. Zero opens and closes a connection
+	 * for every request.
+	 */
+	TokBoxNetConnection(int max_connections) {
+		this.max_connections = max_connections;
+		this.permits = max_connections > 0 ? new Semaphore(max_connections, true) : null;
+	}
+
+	public TransportResponse send(TransportRequest request) throws IOException {
+		if(null != permits && !permits.tryAcquire()) {
+			long start = System.nanoTime();
+			permits.acquireUninterruptibly();
+			waited_requests.incrementAndGet();
+			wait_nanos.addAndGet(System.nanoTime() - start);
+		}
+		requests.incrementAndGet();
+		int current = in_flight.incrementAndGet();
+		int peak;
+		while(current > (peak = peak_in_flight.get()) && !peak_in_flight.compareAndSet(peak, current));
+
+		boolean sent = false;
+		try {
+			TransportResponse response = open(request);
+			sent = true;
+			return response;
+		} finally {
+			if(!sent) {
+				release();
+			}
+		}
+	}
 
-			for(Iterator<String> i = paramList.keySet().iterator(); i.hasNext(); ) {
-				String key = i.next();
-				String value = paramList.get(key);
+	/**
+	 * Reads the whole response before the future completes and hands back a copy in memory,
+	 * so a future that is never read holds no connection. A response that arrives after the
+	 * future was cancelled is closed, as is a completed one when cancel() is called.
+	 */
+	public Future<TransportResponse> send_async(final TransportRequest request) {
+		FutureTask<TransportResponse> task = new FutureTask<TransportResponse>(new Callable<TransportResponse>() {
+			public TransportResponse call() throws IOException {
+				return buffer(send(request));
+			}
+		}) {
+			protected void set(TransportResponse response) {
+				super.set(response);
+				if(isCancelled()) {
+					close_quietly(response);
+				}
+			}
 
-				if(null != value) {
-					value = URLEncoder.encode(paramList.get(key), "UTF-8").replaceAll("\\+", "%20");
-					dataString.append(URLEncoder.encode(key, "UTF-8")).append("=").append(value).append("&");
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if(super.cancel(mayInterruptIfRunning)) {
+					return true;
+				}
+				if(isDone()) {
+					try {
+						close_quietly(get());
+					} catch(Exception e) {
+						// failed, so there is no response to close
+					}
 				}
+				return false;
+			}
+		};
+		async_executor().execute(task);
+		return task;
+	}
+
+	public ConnectionStats stats() {
+		return new ConnectionStats(max_connections, requests.get(), in_flight.get(), peak_in_flight.get(),
+				waited_requests.get(), wait_nanos.get());
+	}
+
+	private static TransportResponse buffer(TransportResponse response) throws IOException {
+		try {
+			if(null == response.body) {
+				return response;
+			}
+			ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+			byte[] chunk = new byte[4096];
+			int n;
+			while((n = response.body.read(chunk)) >= 0) {
+				body.write(chunk, 0, n);
 			}
-			url = new URL(reqString);
+			return new TransportResponse(response.status, new ByteArrayInputStream(body.toByteArray()));
+		} finally {
+			response.close();
+		}
+	}
+
+	private static void close_quietly(TransportResponse response) {
+		try {
+			response.close();
+		} catch(IOException e) {
+		}
+	}
+
+	private void release() {
+		in_flight.decrementAndGet();
+		if(null != permits) {
+			permits.release();
+		}
+	}
+
+	private TransportResponse open(TransportRequest request) throws IOException {
+
+		URL url = null;
+		HttpURLConnection conn = null;
+		OutputStream out = null;
+		InputStream in = null;
+
+		RequestTiming timing = request.timing;
+		long mark = 0;
+
+		try {
+			url = new URL(request.url);
 			conn = (HttpURLConnection) url.openConnection();
 
 			conn.setDoOutput(true);
 			conn.setDoInput(true);
 			conn.setUseCaches(false);
+			// Left in buffered mode on purpose: HttpURLConnection then sets Content-Length from the
+			// byte count and sends headers and body in one write. Fixed-length streaming mode
+			// writes them separately, which can stall on Nagle's algorithm and delayed ACKs.
 
 			conn.setRequestMethod("POST");
-			conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
-			conn.setRequestProperty("Content-Length", Integer.toString(dataString.toString().length()));
+			conn.setRequestProperty("Content-Type", request.content_type);
 			conn.setRequestProperty("Accept-Charset", "utf-8");
+			conn.setRequestProperty("Accept-Encoding", "gzip");
 			conn.setRequestProperty("Accept", "text/html, application/xhtml+xml,application/xml");
 
-			for(Iterator<String> i = headers.keySet().iterator(); i.hasNext(); ) {
-				String key = i.next();
-				String value = headers.get(key);
-				conn.setRequestProperty(key, value);
+			for(Iterator<Map.Entry<String, String>> i = request.headers.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry<String, String> header = i.next();
+				conn.setRequestProperty(header.getKey(), header.getValue());
+			}
+
+			if(null != timing) {
+				mark = System.nanoTime();
+			}
+			try {
+				conn.connect();
+			} catch(IOException e) {
+				throw connect_failure(e);
+			}
+			if(null != timing) {
+				timing.connect = System.nanoTime() - mark;
+				mark = System.nanoTime();
 			}
 
-			wr = new OutputStreamWriter(conn.getOutputStream(), "UTF8");
-			bufWriter = new BufferedWriter( wr );
-			bufWriter.write(dataString.toString());
-			bufWriter.flush();
+			out = conn.getOutputStream();
+			request.write_body(out);
+			out.close();
+
+			// Error responses still carry an XML body describing the error
+			int status = conn.getResponseCode();
+			if(null != timing) {
+				timing.first_byte = System.nanoTime() - mark;
+				timing.status = status;
+			}
+			in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+			if(null != in && "gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+			}
 
-			br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF8"));
+			final HttpURLConnection connection = conn;
+			TransportResponse response = new TransportResponse(status, null == in ? null : new BufferedInputStream(in)) {
+				private final AtomicBoolean closed = new AtomicBoolean();
 
-			String str;
-			while(null != ((str = br.readLine())))
-				{
-					returnString.append(str);
-					returnString.append("\n");
+				public void close() throws IOException {
+					if(!closed.compareAndSet(false, true)) {
+						return;
+					}
+					try {
+						// Closing drains what the parser left unread and returns the connection to the keep-alive cache
+						super.close();
+					} finally {
+						if(null == permits) {
+							connection.disconnect();
+						}
+						release();
+					}
 				}
-		} catch(IOException e) {
-			e.printStackTrace();
+			};
+			conn = null;
+			return response;
 		} finally {
-			try {
-				if(null != conn) {
-					conn.disconnect();
+			if(null != conn) {
+				if(null != in) {
+					in.close();
 				}
+				conn.disconnect();
+			}
+		}
+	}
 
-				if(null != wr) {
-					wr.close();
-				}
+	/**
+	 * Reports a failure to connect, which happened before any of the request was written,
+	 * as one of the exception types the Transport contract reserves for that case.
+	 */
+	private static IOException connect_failure(IOException e) {
+		if(e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException) {
+			return e;
+		}
+		ConnectException failure = new ConnectException(e.toString());
+		failure.initCause(e);
+		return failure;
+	}
 
-				if(null != bufWriter) {
-					bufWriter.close();
-				}
+	/**
+	 * Connects to the endpoint, including the TLS handshake for https, and disconnects again
+	 * without sending any request, so the DNS entry and the TLS session are cached before the
+	 * first real call. Sending nothing keeps warm-up from reaching the API unauthenticated;
+	 * the first call still opens its own connection.
+	 */
+	boolean preconnect(String base_url, int timeout_ms) {
+		HttpURLConnection conn = null;
+		try {
+			conn = (HttpURLConnection) new URL(base_url).openConnection();
+			conn.setConnectTimeout(timeout_ms);
+			conn.setReadTimeout(timeout_ms);
+			conn.connect();
+			return true;
+		} catch(IOException e) {
+			return false;
+		} finally {
+			if(null != conn) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	private static synchronized ExecutorService async_executor() {
+		if(null == async_executor) {
+			async_executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
 
-				if(null != br) {
-					br.close();
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "opentok-transport-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
 				}
+			});
+		}
+		return async_executor;
+	}
+
+	/**
+	 * Encodes the parameters as an application/x-www-form-urlencoded body, writing the
+	 * percent-encoded UTF-8 bytes straight into the buffer. Spaces are sent as %20.
+	 */
+	static byte[] encodeForm(Map<String, String> paramList) throws UnsupportedEncodingException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+
+		for(Iterator<Map.Entry<String, String>> i = paramList.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, String> param = i.next();
+
+			if(null != param.getValue()) {
+				encodeComponent(param.getKey(), body);
+				body.write('=');
+				encodeComponent(param.getValue(), body);
+				body.write('&');
 			}
-			catch(IOException e) {
-				e.printStackTrace();
-			}
 		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Returns a new encoded form body with one more parameter appended, or the body itself
+	 * when value is null. Neither may be modified: the body is shared by a SessionTemplate.
+	 */
+	static byte[] appendForm(byte[] encoded, String name, String value) throws UnsupportedEncodingException {
+		if(null == value) {
+			return encoded;
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream(encoded.length + name.length() + value.length() * 3 + 2);
+		body.write(encoded, 0, encoded.length);
+		encodeComponent(name, body);
+		body.write('=');
+		encodeComponent(value, body);
+		body.write('&');
+		return body.toByteArray();
+	}
 
-		return returnString.toString();
+	private static void encodeComponent(String s, ByteArrayOutputStream body) throws UnsupportedEncodingException {
+		byte[] bytes = s.getBytes("UTF-8");
+		for(int i = 0; i < bytes.length; i++) {
+			int b = bytes[i] & 0xff;
+			if((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+					|| b == '-' || b == '.' || b == '_' || b == '*') {
+				body.write(b);
+			} else {
+				body.write('%');
+				body.write(HEX[b >> 4]);
+				body.write(HEX[b & 0x0f]);
+			}
+		}
 	}
 }
@@ -0,0 +1,183 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * An opt-in cache in front of generate_token that hands out a previously minted token for the
+ * same session, role, expiry window and connection_data as long as enough of its lifetime remains.
+ *
+ * Lookups are lock-free reads of a concurrent map. Once max_entries is exceeded the entries
+ * minted longest ago are evicted first; replacing a stale token counts as minting it anew. Entries too close to expiry to be handed out are replaced on their
+ * next lookup, dropped from the front of the insertion order as new tokens are cached, and
+ * all dropped by purge(). Tokens are shared between callers, so only cache tokens whose
+ * connection_data does not need to be unique per connection.
+ */
+public class TokenCache {
+
+	// Tokens minted without an explicit expire_time are valid for 24h
+	private static final long DEFAULT_EXPIRE_WINDOW = 86400;
+
+	private static final class Entry {
+		final String token;
+		final long expire_time;
+
+		Entry(String token, long expire_time) {
+			this.token = token;
+			this.expire_time = expire_time;
+		}
+	}
+
+	private final OpenTokSDK sdk;
+	private final int max_entries;
+	private final long min_remaining;
+	private final ConcurrentHashMap<String, Entry> entries;
+	private final ConcurrentLinkedQueue<String> insertion_order = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * @max_entries: Maximum number of tokens kept.
+	 * @min_remaining: Seconds of validity a cached token must have left to be handed out again.
+	 */
+	public TokenCache(OpenTokSDK sdk, int max_entries, long min_remaining) {
+		this.sdk = sdk;
+		this.max_entries = max_entries;
+		this.min_remaining = min_remaining;
+		this.entries = new ConcurrentHashMap<String, Entry>(Math.min(max_entries, 1 << 16) * 4 / 3 + 1);
+	}
+
+	/**
+	 * Returns a token with the default 24h lifetime.
+	 */
+	public String generate_token(String session_id, String role, String connection_data) throws OpenTokException {
+		return generate_token(session_id, role, null, connection_data);
+	}
+
+	/**
+	 * @expire_window: Seconds after minting at which the token expires, or null for the default 24h.
+	 */
+	public String generate_token(String session_id, String role, Long expire_window, String connection_data) throws OpenTokException {
+		if(null == session_id) {
+			return sdk.generate_token(session_id, role, null, connection_data);
+		}
+		String key = key(session_id, role, expire_window, connection_data);
+		long now = sdk.get_clock().now_seconds();
+
+		Entry entry = entries.get(key);
+		if(null != entry && entry.expire_time - now >= min_remaining) {
+			return entry.token;
+		}
+
+		long window = null == expire_window ? DEFAULT_EXPIRE_WINDOW : expire_window;
+		String token = sdk.generate_token(session_id, role, null == expire_window ? null : now + window, connection_data);
+		if(null == entries.put(key, new Entry(token, now + window))) {
+			insertion_order.add(key);
+			if(size.incrementAndGet() > max_entries) {
+				evict();
+			}
+			expire_oldest(now);
+		} else if(insertion_order.remove(key)) {
+			// refreshed, so it is now the newest entry; a key taken off the queue concurrently
+			// is requeued by expire_oldest or was evicted along with this entry
+			insertion_order.add(key);
+		}
+		return token;
+	}
+
+	/**
+	 * Drops every entry with less than min_remaining seconds of validity left.
+	 * Returns the number of entries dropped.
+	 */
+	public int purge() {
+		long now = sdk.get_clock().now_seconds();
+		int purged = 0;
+		for(Iterator<String> i = insertion_order.iterator(); i.hasNext(); ) {
+			String key = i.next();
+			Entry entry = entries.get(key);
+			if(null != entry && entry.expire_time - now < min_remaining && entries.remove(key, entry)) {
+				i.remove();
+				size.decrementAndGet();
+				purged++;
+			}
+		}
+		return purged;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public void clear() {
+		String key;
+		while((key = insertion_order.poll()) != null) {
+			if(null != entries.remove(key)) {
+				size.decrementAndGet();
+			}
+		}
+	}
+
+	private void evict() {
+		while(size.get() > max_entries) {
+			String oldest = insertion_order.poll();
+			if(null == oldest) {
+				return;
+			}
+			if(null != entries.remove(oldest)) {
+				size.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops up to two stale entries from the front of the insertion order, so that with
+	 * uniform expiry windows the cache sheds dead tokens at the rate it takes new ones.
+	 */
+	private void expire_oldest(long now) {
+		for(int n = 0; n < 2; n++) {
+			String oldest = insertion_order.peek();
+			if(null == oldest) {
+				return;
+			}
+			Entry entry = entries.get(oldest);
+			if(null != entry && entry.expire_time - now >= min_remaining) {
+				return;
+			}
+			if(!insertion_order.remove(oldest)) {
+				return;
+			}
+			if(null != entry && entries.remove(oldest, entry)) {
+				size.decrementAndGet();
+			} else if(entries.containsKey(oldest)) {
+				// refreshed by another thread meanwhile, keep it evictable
+				insertion_order.add(oldest);
+			}
+		}
+	}
+
+	/**
+	 * Joins the parts into one string, so an entry costs a single key object.
+	 * A null connection_data is kept distinct from an empty one.
+	 */
+	private static String key(String session_id, String role, Long expire_window, String connection_data) {
+		StringBuilder key = new StringBuilder(session_id.length() + 32 + (null == connection_data ? 0 : connection_data.length()));
+		key.append(session_id).append('\u0000').append(role).append('\u0000');
+		if(null != expire_window) {
+			key.append(expire_window.longValue());
+		}
+		if(null != connection_data) {
+			key.append('\u0000').append(connection_data);
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,21 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * Supplies the time tokens are created at. Set with OpenTokSDK.set_clock; the default
+ * reads a cached value refreshed every 10ms instead of the system clock on every mint,
+ * so create_time and the expire_time checks can be up to 10ms behind.
+ */
+public interface TokenClock {
+
+	/**
+	 * Current Unix time in seconds, used as create_time and to check expire_time.
+	 */
+	long now_seconds();
+}
@@ -0,0 +1,639 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.opentok.api.constants.RoleConstants;
+
+/**
+ * Serves token minting to other processes on the same host over loopback HTTP, so they get
+ * tokens from one warmed-up SDK without embedding it or holding the API secret.
+ *
+ * Requests are POST /tokens with an Authorization: Bearer header carrying the daemon's auth
+ * token, and a plain text body of one token request per line:
+ *
+ *     session_id TAB role TAB expire_time TAB connection_data
+ *
+ * Trailing fields can be left out; an empty role means publisher and an empty expire_time
+ * the default lifetime. connection_data runs to the end of the line. The response body has
+ * one line per request line, in order: the token, or "!" followed by the TokenResult error
+ * code (or EXPIRE_TIME_INVALID when expire_time is not a number) and message. A request
+ * body can carry any number of lines, connections are kept alive, and pipelined requests
+ * are answered in order with a single write once every request already received has been
+ * handled. GET /health answers "ok" without the auth token.
+ *
+ * The daemon binds to the loopback interface only. Only processes that can read the auth
+ * token mint tokens: keep it in a file only its owner can read (see the File constructor).
+ * Requests whose Host header does not name the loopback interface are refused, so a web
+ * page cannot reach the daemon through DNS rebinding. On Java 16 or later it can also
+ * listen on a Unix domain socket (listen_unix). Run it standalone with main, passing the
+ * secret in OPENTOK_API_SECRET.
+ *
+ * Every open connection holds one of the daemon's threads, so at most max_connections are
+ * served at once (256 by default, see set_max_connections). Further connections are sent a
+ * 503 and closed straight away without reading the request, so a client may see the
+ * connection reset instead. A TCP connection idle for a minute is closed to free its slot.
+ */
+public class TokenDaemon {
+
+	private static final int MAX_BODY = 16 * 1024 * 1024;
+	private static final int IDLE_TIMEOUT_MS = 60000;
+
+	private final OpenTokSDK sdk;
+	private final int port;
+	private final byte[] auth_token;
+	private final ExecutorService connections;
+	private final Set<Closeable> open = Collections.synchronizedSet(new HashSet<Closeable>());
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong tokens = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+	private volatile int max_connections = 256;
+	private ServerSocket server;
+	private Thread acceptor;
+	private Closeable unix;
+	private volatile boolean stopped;
+
+	/**
+	 * Requires a random auth token that lives only in this process; hand it to in-process
+	 * clients with get_auth_token.
+	 *
+	 * @port: Loopback port to listen on, or 0 to pick a free one (see get_port).
+	 */
+	public TokenDaemon(OpenTokSDK sdk, int port) {
+		this(sdk, port, random_token());
+	}
+
+	/**
+	 * Requires the auth token stored in token_file. A missing file is created with a new
+	 * random token, readable and writable by its owner only. An existing file that other
+	 * users can read or write is refused.
+	 *
+	 * @port: Loopback port to listen on, or 0 to pick a free one (see get_port).
+	 */
+	public TokenDaemon(OpenTokSDK sdk, int port, File token_file) throws IOException {
+		this(sdk, port, read_or_create_token(token_file));
+	}
+
+	private TokenDaemon(OpenTokSDK sdk, int port, String auth_token) {
+		this.sdk = sdk;
+		this.port = port;
+		try {
+			this.auth_token = ("Bearer " + auth_token).getBytes("UTF-8");
+		} catch(IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+		this.connections = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "opentok-token-daemon");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Warms the SDK up for at most warmup_ms milliseconds, then starts accepting connections.
+	 */
+	public synchronized void start(long warmup_ms) throws IOException {
+		if(warmup_ms > 0) {
+			sdk.warm_up(warmup_ms);
+		}
+		server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 1024);
+		acceptor = new Thread("opentok-token-daemon-accept") {
+			public void run() {
+				accept_loop();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Also accepts connections on a Unix domain socket at path, which is created readable
+	 * and writable by its owner only; a stale socket file left at path is replaced. Requests
+	 * on it need the auth token like any other. Needs Java 16 or later: older runtimes throw
+	 * UnsupportedOperationException.
+	 */
+	public synchronized void listen_unix(File path) throws IOException {
+		if(null != unix) {
+			throw new IllegalStateException("Already listening on a Unix domain socket");
+		}
+		try {
+			unix = (Closeable) Class.forName("com.opentok.api.UnixSocketListener")
+					.getDeclaredConstructor(TokenDaemon.class, File.class).newInstance(this, path);
+		} catch(InvocationTargetException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause().toString());
+		} catch(Throwable e) {
+			// No Unix domain sockets in this JVM, or one older than the Java 16 UnixSocketListener is built for
+			throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later: " + e);
+		}
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		try {
+			if(null != server) {
+				server.close();
+			}
+		} catch(IOException e) {
+			// already closed
+		}
+		if(null != unix) {
+			close(unix);
+		}
+		synchronized(open) {
+			for(Iterator<Closeable> i = open.iterator(); i.hasNext(); ) {
+				close(i.next());
+			}
+		}
+		connections.shutdownNow();
+	}
+
+	/**
+	 * Limits the connections served at once; applies to connections accepted from now on.
+	 */
+	public void set_max_connections(int max_connections) {
+		if(max_connections < 1) {
+			throw new IllegalArgumentException("max_connections must be at least 1");
+		}
+		this.max_connections = max_connections;
+	}
+
+	public int get_port() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * The token clients send as "Authorization: Bearer <token>".
+	 */
+	public String get_auth_token() {
+		try {
+			return new String(auth_token, 7, auth_token.length - 7, "UTF-8");
+		} catch(IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * HTTP requests served so far.
+	 */
+	public long requests() {
+		return requests.get();
+	}
+
+	/**
+	 * Token request lines answered so far, including rejected ones.
+	 */
+	public long tokens() {
+		return tokens.get();
+	}
+
+	/**
+	 * Connections turned away because max_connections were already open.
+	 */
+	public long refused() {
+		return refused.get();
+	}
+
+	private void accept_loop() {
+		while(!stopped) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch(IOException e) {
+				if(!stopped) {
+					e.printStackTrace();
+				}
+				return;
+			}
+			try {
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(IDLE_TIMEOUT_MS);
+				handle(socket, socket.getInputStream(), socket.getOutputStream());
+			} catch(IOException e) {
+				close(socket);
+			}
+		}
+	}
+
+	/**
+	 * Serves one accepted connection on the daemon's threads and closes it when the client is
+	 * done, or answers 503 and closes it when max_connections are already being served.
+	 */
+	void handle(final Closeable connection, final InputStream in, final OutputStream out) {
+		if(active.incrementAndGet() > max_connections) {
+			active.decrementAndGet();
+			refused.incrementAndGet();
+			try {
+				// A fresh connection's send buffer takes this without blocking the acceptor
+				refuse(out, "503 Service Unavailable", "Too many connections\n");
+			} catch(IOException e) {
+				// client went away
+			}
+			close(connection);
+			return;
+		}
+		open.add(connection);
+		if(stopped) {
+			open.remove(connection);
+			active.decrementAndGet();
+			close(connection);
+			return;
+		}
+		try {
+			connections.execute(new Runnable() {
+				public void run() {
+					try {
+						serve(in, out);
+					} catch(IOException e) {
+						// client went away or stayed idle too long
+					} finally {
+						open.remove(connection);
+						close(connection);
+						active.decrementAndGet();
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			// stopped meanwhile
+			open.remove(connection);
+			active.decrementAndGet();
+			close(connection);
+		}
+	}
+
+	private void serve(InputStream raw_in, OutputStream raw_out) throws IOException {
+		InputStream in = new BufferedInputStream(raw_in, 64 * 1024);
+		OutputStream out = new BufferedOutputStream(raw_out, 64 * 1024);
+		ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+		while(true) {
+			String request_line = read_line(in);
+			if(null == request_line) {
+				return;
+			}
+			if(request_line.length() == 0) {
+				continue;
+			}
+			int content_length = -1;
+			boolean bad_length = false;
+			boolean close = request_line.endsWith("HTTP/1.0");
+			boolean chunked = false;
+			String host = null;
+			String authorization = null;
+			String header;
+			while((header = read_line(in)) != null && header.length() > 0) {
+				int colon = header.indexOf(':');
+				if(colon < 0) {
+					continue;
+				}
+				String name = header.substring(0, colon).trim();
+				String value = header.substring(colon + 1).trim();
+				if("Content-Length".equalsIgnoreCase(name)) {
+					int length = parse_length(value);
+					// A second, different length could smuggle a request past a proxy
+					bad_length |= length < 0 || (content_length >= 0 && content_length != length);
+					content_length = length;
+				} else if("Host".equalsIgnoreCase(name)) {
+					host = value;
+				} else if("Authorization".equalsIgnoreCase(name)) {
+					authorization = value;
+				} else if("Connection".equalsIgnoreCase(name)) {
+					close = "close".equalsIgnoreCase(value) || (close && !"keep-alive".equalsIgnoreCase(value));
+				} else if("Transfer-Encoding".equalsIgnoreCase(name)) {
+					chunked = true;
+				}
+			}
+			if(null == header) {
+				return;
+			}
+			requests.incrementAndGet();
+
+			// Refusals close the connection, since the request body is left unread
+			if(bad_length) {
+				refuse(out, "400 Bad Request", "Malformed Content-Length\n");
+				return;
+			}
+			if(!is_loopback(host)) {
+				refuse(out, "403 Forbidden", "The Host header must name the loopback interface\n");
+				return;
+			}
+			if(request_line.startsWith("POST /tokens ")) {
+				if(chunked || content_length < 0 || content_length > MAX_BODY) {
+					refuse(out, "411 Length Required", "Send a Content-Length of at most " + MAX_BODY + " bytes\n");
+					return;
+				}
+				if(null == authorization || !MessageDigest.isEqual(auth_token, authorization.getBytes("UTF-8"))) {
+					refuse(out, "401 Unauthorized", "Send the daemon's auth token as Authorization: Bearer <token>\n");
+					return;
+				}
+				body.reset();
+				copy(in, body, content_length);
+				respond(out, "200 OK", mint(body.toString("UTF-8")), close);
+			} else {
+				if(chunked || content_length > MAX_BODY) {
+					refuse(out, "411 Length Required", "Send a Content-Length of at most " + MAX_BODY + " bytes\n");
+					return;
+				}
+				if(content_length > 0) {
+					body.reset();
+					copy(in, body, content_length);
+				}
+				if(request_line.startsWith("GET /health ")) {
+					respond(out, "200 OK", "ok\n", close);
+				} else {
+					respond(out, "404 Not Found", "Use POST /tokens or GET /health\n", close);
+				}
+			}
+
+			// Answer every pipelined request already received with one write
+			if(close || in.available() == 0) {
+				out.flush();
+			}
+			if(close) {
+				return;
+			}
+		}
+	}
+
+	private String mint(String body) {
+		StringBuilder response = new StringBuilder(body.length() * 2 + 256);
+		int start = 0;
+		while(start < body.length()) {
+			int end = body.indexOf('\n', start);
+			if(end < 0) {
+				end = body.length();
+			}
+			int line_end = end > start && body.charAt(end - 1) == '\r' ? end - 1 : end;
+			if(line_end > start) {
+				mint_line(body, start, line_end, response);
+			}
+			start = end + 1;
+		}
+		return response.toString();
+	}
+
+	private void mint_line(String body, int start, int end, StringBuilder response) {
+		String[] fields = new String[4];
+		int f = 0;
+		int field_start = start;
+		for(int i = start; i < end && f < 3; i++) {
+			if(body.charAt(i) == '\t') {
+				fields[f++] = body.substring(field_start, i);
+				field_start = i + 1;
+			}
+		}
+		fields[f] = body.substring(field_start, end);
+
+		String role = null == fields[1] || fields[1].length() == 0 ? RoleConstants.PUBLISHER : fields[1];
+		Long expire_time = null;
+		if(null != fields[2] && fields[2].length() > 0) {
+			try {
+				expire_time = Long.valueOf(fields[2]);
+			} catch(NumberFormatException e) {
+				response.append("!EXPIRE_TIME_INVALID ").append(fields[2]).append(" is not a timestamp\n");
+				tokens.incrementAndGet();
+				return;
+			}
+		}
+		TokenResult result = sdk.try_generate_token(fields[0], role, expire_time, fields[3]);
+		if(result.ok()) {
+			response.append(result.token);
+		} else {
+			response.append('!').append(result.error.name()).append(' ').append(result.get_message());
+		}
+		response.append('\n');
+		tokens.incrementAndGet();
+	}
+
+	private static void refuse(OutputStream out, String status, String body) throws IOException {
+		respond(out, status, body, true);
+		out.flush();
+	}
+
+	private static void respond(OutputStream out, String status, String body, boolean close) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		StringBuilder head = new StringBuilder(128);
+		head.append("HTTP/1.1 ").append(status).append("\r\n");
+		head.append("Content-Type: text/plain; charset=UTF-8\r\n");
+		head.append("Content-Length: ").append(bytes.length).append("\r\n");
+		if(close) {
+			head.append("Connection: close\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads one CRLF or LF terminated header line, or returns null at the end of the stream.
+	 */
+	private static String read_line(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder(64);
+		int c;
+		while((c = in.read()) != -1) {
+			if(c == '\n') {
+				int length = line.length();
+				if(length > 0 && line.charAt(length - 1) == '\r') {
+					line.setLength(length - 1);
+				}
+				return line.toString();
+			}
+			if(line.length() > 8192) {
+				throw new IOException("Header line too long");
+			}
+			line.append((char) c);
+		}
+		return line.length() == 0 ? null : line.toString();
+	}
+
+	private static void copy(InputStream in, ByteArrayOutputStream body, int length) throws IOException {
+		byte[] buffer = new byte[Math.min(length, 64 * 1024) + 1];
+		while(length > 0) {
+			int n = in.read(buffer, 0, Math.min(length, buffer.length));
+			if(n < 0) {
+				throw new IOException("Request body ended early");
+			}
+			body.write(buffer, 0, n);
+			length -= n;
+		}
+	}
+
+	/**
+	 * Returns the Content-Length value, or -1 unless it is a plain decimal number.
+	 */
+	static int parse_length(String value) {
+		if(value.length() == 0 || value.length() > 9) {
+			return -1;
+		}
+		int length = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c < '0' || c > '9') {
+				return -1;
+			}
+			length = length * 10 + (c - '0');
+		}
+		return length;
+	}
+
+	/**
+	 * Whether a Host header names the loopback interface, with or without a port.
+	 */
+	static boolean is_loopback(String host) {
+		if(null == host) {
+			return false;
+		}
+		String name;
+		if(host.startsWith("[")) {
+			int end = host.indexOf(']');
+			if(end < 0) {
+				return false;
+			}
+			name = host.substring(1, end);
+		} else {
+			int colon = host.indexOf(':');
+			name = colon < 0 ? host : host.substring(0, colon);
+		}
+		return "127.0.0.1".equals(name) || "localhost".equalsIgnoreCase(name) || "::1".equals(name);
+	}
+
+	private static String random_token() {
+		byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+		StringBuilder token = new StringBuilder(64);
+		for(int i = 0; i < bytes.length; i++) {
+			token.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+		}
+		return token.toString();
+	}
+
+	private static String read_or_create_token(File file) throws IOException {
+		Path path = file.toPath();
+		boolean posix = path.getFileSystem().supportedFileAttributeViews().contains("posix");
+		if(!file.exists()) {
+			String token = random_token();
+			if(posix) {
+				Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			} else {
+				Files.createFile(path);
+				file.setReadable(false, false);
+				file.setWritable(false, false);
+				file.setReadable(true, true);
+				file.setWritable(true, true);
+			}
+			Writer out = new OutputStreamWriter(Files.newOutputStream(path), "UTF-8");
+			try {
+				out.write(token + "\n");
+			} finally {
+				out.close();
+			}
+			return token;
+		}
+		if(posix) {
+			Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+			permissions.remove(PosixFilePermission.OWNER_READ);
+			permissions.remove(PosixFilePermission.OWNER_WRITE);
+			if(!permissions.isEmpty()) {
+				throw new IOException(file + " must be readable and writable by its owner only (chmod 600)");
+			}
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String token = in.readLine();
+			if(null == token || token.trim().length() == 0) {
+				throw new IOException(file + " holds no auth token");
+			}
+			return token.trim();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void close(Closeable connection) {
+		try {
+			connection.close();
+		} catch(IOException e) {
+			// nothing to release
+		}
+	}
+
+	/**
+	 * Runs the daemon until the process is stopped. The auth token is kept in
+	 * OPENTOK_DAEMON_TOKEN_FILE, ~/.opentok-daemon-token by default, and created there on the
+	 * first run. Set OPENTOK_DAEMON_SOCKET to a path to listen on a Unix domain socket as well.
+	 *
+	 * Usage: OPENTOK_API_SECRET=secret java com.opentok.api.TokenDaemon api_key [port] [api_url]
+	 */
+	public static void main(String argv[]) throws Exception {
+		if(argv.length < 1 || null == System.getenv("OPENTOK_API_SECRET")) {
+			System.err.println("Usage: OPENTOK_API_SECRET=secret java com.opentok.api.TokenDaemon api_key [port] [api_url]");
+			System.exit(1);
+		}
+		int api_key = Integer.parseInt(argv[0]);
+		int port = argv.length > 1 ? Integer.parseInt(argv[1]) : 7450;
+		OpenTokSDK sdk = argv.length > 2
+				? new OpenTokSDK(api_key, System.getenv("OPENTOK_API_SECRET"), argv[2])
+				: new OpenTokSDK(api_key, System.getenv("OPENTOK_API_SECRET"));
+		File token_file = null != System.getenv("OPENTOK_DAEMON_TOKEN_FILE")
+				? new File(System.getenv("OPENTOK_DAEMON_TOKEN_FILE"))
+				: new File(System.getProperty("user.home"), ".opentok-daemon-token");
+		final TokenDaemon daemon = new TokenDaemon(sdk, port, token_file);
+		daemon.start(2000);
+		if(null != System.getenv("OPENTOK_DAEMON_SOCKET")) {
+			daemon.listen_unix(new File(System.getenv("OPENTOK_DAEMON_SOCKET")));
+			System.err.println("Minting tokens on " + System.getenv("OPENTOK_DAEMON_SOCKET"));
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				daemon.stop();
+			}
+		});
+		System.err.println("Minting tokens on http://127.0.0.1:" + daemon.get_port() + "/tokens, auth token in " + token_file);
+		Thread.currentThread().join();
+	}
+}
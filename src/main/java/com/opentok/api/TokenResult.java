@@ -0,0 +1,77 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Either a token or the reason it could not be generated, as returned by
+ * OpenTokSDK.try_generate_token. Rejecting bad input this way costs no exception.
+ */
+public class TokenResult {
+
+	public enum Error {
+		EMPTY_SESSION_ID,
+		INVALID_SESSION_ID,
+		INVALID_ROLE,
+		EXPIRE_TIME_IN_PAST,
+		EXPIRE_TIME_TOO_FAR,
+		CONNECTION_DATA_TOO_LONG,
+		SIGNING_FAILED
+	}
+
+	public final String token;   //Null when the token could not be generated
+	public final Error error;    //Null on success
+	private final String detail;
+
+	private TokenResult(String token, Error error, String detail) {
+		this.token = token;
+		this.error = error;
+		this.detail = detail;
+	}
+
+	static TokenResult success(String token) {
+		return new TokenResult(token, null, null);
+	}
+
+	static TokenResult failure(Error error, String detail) {
+		return new TokenResult(null, error, detail);
+	}
+
+	public boolean ok() {
+		return null == error;
+	}
+
+	/**
+	 * The same message generate_token would have thrown, built only when asked for.
+	 */
+	public String get_message() {
+		if(null == error) {
+			return null;
+		}
+		switch(error) {
+			case EMPTY_SESSION_ID: return "Null or empty session ID are not valid";
+			case INVALID_SESSION_ID: return "An invalid session ID was passed";
+			case INVALID_ROLE: return detail + " is not a recognized role";
+			case EXPIRE_TIME_IN_PAST: return "Expire time must be in the future";
+			case EXPIRE_TIME_TOO_FAR: return "Expire time must be in the next 30 days";
+			case CONNECTION_DATA_TOO_LONG: return "Connection data must be less than 1000 characters";
+			default: return detail;
+		}
+	}
+
+	/**
+	 * Returns the token, or throws an OpenTokException without a stack trace.
+	 */
+	public String get_token() throws OpenTokException {
+		if(null != error) {
+			throw new OpenTokException(get_message(), false);
+		}
+		return token;
+	}
+}
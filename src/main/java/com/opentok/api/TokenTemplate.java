@@ -0,0 +1,76 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import com.opentok.exception.OpenTokException;
+
+/**
+ * Mints tokens sharing one session, role, expiry window and connection_data.
+ *
+ * Created through OpenTokSDK.create_token_template, which validates and URL encodes
+ * the invariant parts once. Instances are immutable and safe to share across threads.
+ */
+public class TokenTemplate {
+
+	private final OpenTokSDK sdk;
+	private final String session_part;
+	private final String role_part;
+	private final Long expire_window;
+	private final String connection_part;
+	private final String session_id;
+	private final String role;
+	private final String connection_data;
+
+	TokenTemplate(OpenTokSDK sdk, String session_id, String role, Long expire_window, String connection_data, String encoded_connection_data) {
+		this.sdk = sdk;
+		this.session_id = session_id;
+		this.role = role;
+		this.connection_data = connection_data;
+		this.session_part = "session_id=" + session_id + "&create_time=";
+		this.role_part = "&role=" + role;
+		this.expire_window = expire_window;
+		this.connection_part = encoded_connection_data == null ? "" : "&connection_data=" + encoded_connection_data;
+	}
+
+	/**
+	 * Generates a new token from this template, created now.
+	 */
+	public String mint() throws OpenTokException {
+		Object event = Instrumentation.INSTANCE.begin_token();
+		boolean minted = false;
+		try {
+			String token = sign();
+			minted = true;
+			return token;
+		} finally {
+			Instrumentation.INSTANCE.end_token(event, session_id, role, true, minted);
+		}
+	}
+
+	private String sign() throws OpenTokException {
+		long create_time = sdk.get_clock().now_seconds();
+		StringBuilder data_string_builder = new StringBuilder(session_part.length() + role_part.length() + connection_part.length() + 64);
+		data_string_builder.append(session_part);
+		data_string_builder.append(create_time);
+		data_string_builder.append("&nonce=");
+		int nonce = sdk.get_nonce_source().next_nonce(create_time);
+		data_string_builder.append(nonce);
+		data_string_builder.append(role_part);
+		long expire_time = 0;
+		if(expire_window != null) {
+			expire_time = create_time + expire_window;
+			data_string_builder.append("&expire_time=");
+			data_string_builder.append(expire_time);
+		}
+		data_string_builder.append(connection_part);
+
+		String token = sdk.sign_token(data_string_builder.toString());
+		sdk.journal(session_id, role, create_time, expire_time, nonce, connection_data);
+		return token;
+	}
+}
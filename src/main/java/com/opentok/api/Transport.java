@@ -0,0 +1,39 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Sends OpenTok API requests over the wire. OpenTokSDK uses an HttpURLConnection based
+ * transport by default; another implementation can be injected with OpenTokSDK.set_transport.
+ *
+ * Implementations must be safe for concurrent use. The caller closes every response it
+ * receives once it has read the body.
+ */
+public interface Transport {
+
+	/**
+	 * Sends the request and blocks until the response status and headers are available.
+	 * Bodies with Content-Encoding: gzip must be decoded before they are handed back.
+	 *
+	 * When the request could not be sent at all, throw java.net.ConnectException,
+	 * UnknownHostException or NoRouteToHostException: only these let OpenTokSDK retry the
+	 * call on another endpoint. Any other IOException may have reached the server and is
+	 * never retried.
+	 */
+	TransportResponse send(TransportRequest request) throws IOException;
+
+	/**
+	 * Sends the request without blocking the calling thread. Callers may drop the future
+	 * without reading it, so a transport that limits connections must not hold one for a
+	 * completed future; read the body into memory before completing it.
+	 */
+	Future<TransportResponse> send_async(TransportRequest request);
+}
@@ -0,0 +1,76 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An API call as handed to a Transport: a POST of a form-encoded body to a URL.
+ * Requests are immutable: the body is copied in and only handed out as a copy or
+ * written to a stream, so a transport can never alter the bytes of a shared template.
+ * Requests the SDK builds itself own their body without a copy.
+ */
+public class TransportRequest {
+
+	public final String url;
+	public final Map<String, String> headers;
+	public final String content_type;
+	private final byte[] body;
+	public final RequestTiming timing;   //Null unless a RequestTracer is registered
+
+	public TransportRequest(String url, Map<String, String> headers, String content_type, byte[] body) {
+		this(url, headers, content_type, body, null);
+	}
+
+	/**
+	 * @timing: When not null, transports record the connect and first_byte phases they can observe.
+	 */
+	public TransportRequest(String url, Map<String, String> headers, String content_type, byte[] body, RequestTiming timing) {
+		this(url, headers, content_type, body, timing, true);
+	}
+
+	/**
+	 * @copy_body: False takes ownership of body instead of copying it, for arrays the SDK
+	 * built for this request or never modifies.
+	 */
+	TransportRequest(String url, Map<String, String> headers, String content_type, byte[] body, RequestTiming timing, boolean copy_body) {
+		this.url = url;
+		this.headers = Collections.unmodifiableMap(headers);
+		this.content_type = content_type;
+		this.body = copy_body ? body.clone() : body;
+		this.timing = timing;
+	}
+
+	/**
+	 * Returns a copy of the body.
+	 */
+	public byte[] get_body() {
+		return body.clone();
+	}
+
+	/**
+	 * Returns the body itself, for transports in this package that only read it.
+	 */
+	byte[] shared_body() {
+		return body;
+	}
+
+	public int get_body_length() {
+		return body.length;
+	}
+
+	/**
+	 * Writes the body to out without copying it.
+	 */
+	public void write_body(OutputStream out) throws IOException {
+		out.write(body);
+	}
+}
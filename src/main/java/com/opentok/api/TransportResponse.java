@@ -0,0 +1,33 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response to a TransportRequest. The body is streamed straight to the XML parser;
+ * transports that hold a connection until the body is consumed release it in close().
+ */
+public class TransportResponse implements Closeable {
+
+	public final int status;
+	public final InputStream body;
+
+	public TransportResponse(int status, InputStream body) {
+		this.status = status;
+		this.body = body;
+	}
+
+	public void close() throws IOException {
+		if(null != body) {
+			body.close();
+		}
+	}
+}
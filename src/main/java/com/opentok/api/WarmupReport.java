@@ -0,0 +1,39 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+/**
+ * The outcome of OpenTokSDK.warm_up.
+ */
+public class WarmupReport {
+
+	public final boolean steady;          //Whether per-call latency settled before the budget ran out
+	public final long iterations;         //Warm-up rounds run
+	public final long elapsed_ms;
+	public final long token_nanos;        //Mean generate_token latency in the last round
+	public final long parse_nanos;        //Mean request encoding plus response parse latency in the last round
+	public final int endpoints_connected; //Endpoints a connection was opened to
+	public final int endpoints_failed;    //Endpoints that could not be reached
+
+	public WarmupReport(boolean steady, long iterations, long elapsed_ms, long token_nanos, long parse_nanos,
+			int endpoints_connected, int endpoints_failed) {
+		this.steady = steady;
+		this.iterations = iterations;
+		this.elapsed_ms = elapsed_ms;
+		this.token_nanos = token_nanos;
+		this.parse_nanos = parse_nanos;
+		this.endpoints_connected = endpoints_connected;
+		this.endpoints_failed = endpoints_failed;
+	}
+
+	public String toString() {
+		return "steady=" + steady + " iterations=" + iterations + " elapsed_ms=" + elapsed_ms
+				+ " token_ns=" + token_nanos + " parse_ns=" + parse_nanos
+				+ " endpoints_connected=" + endpoints_connected + " endpoints_failed=" + endpoints_failed;
+	}
+}
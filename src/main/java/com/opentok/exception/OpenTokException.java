@@ -6,4 +6,12 @@ public class OpenTokException extends Exception {
 	public OpenTokException(String err) {
 		super(err);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @stack_trace: Pass false to skip capturing the stack trace, which is most of the cost of
+	 * creating an exception. Meant for high-volume input validation failures.
+	 */
+	public OpenTokException(String err, boolean stack_trace) {
+		super(err, null, false, stack_trace);
+	}
+}
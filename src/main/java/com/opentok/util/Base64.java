@@ -5,8 +5,29 @@ public class Base64 {
     private static final String base64code = "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
             + "abcdefghijklmnopqrstuvwxyz" + "0123456789" + "+/";
 
+    private static final char[] base64chars = base64code.toCharArray();
+
+    // Maps both the standard and the URL-safe alphabet back to 6-bit values, -1 for anything else
+    private static final byte[] base64values = new byte[128];
+
+    static {
+        java.util.Arrays.fill(base64values, (byte) -1);
+        for (int i = 0; i < base64chars.length; i++) {
+            base64values[base64chars[i]] = (byte) i;
+        }
+        base64values['-'] = 62;
+        base64values['_'] = 63;
+    }
+
     private static final int splitLinesAt = 76;
 
+    /**
+     * The 6-bit value of a standard or URL-safe base64 character, or -1 for anything else.
+     */
+    static int value(char c) {
+        return c < 128 ? base64values[c] : -1;
+    }
+
     public static byte[] zeroPad(int length, byte[] bytes) {
         byte[] padded = new byte[length]; // initialized to zero by JVM
         System.arraycopy(bytes, 0, padded, 0, bytes.length);
@@ -15,33 +36,89 @@ public class Base64 {
 
     public static String encode(String string) {
 
-        String encoded = "";
         byte[] stringArray;
         try {
             stringArray = string.getBytes("UTF-8");  // use appropriate encoding string!
         } catch (Exception ignored) {
             stringArray = string.getBytes();  // use locale default rather than croak
         }
-        // determine how many padding bytes to add to the output
-        int paddingCount = (3 - (stringArray.length % 3)) % 3;
-        // add any necessary padding to the input
-        stringArray = zeroPad(stringArray.length + paddingCount, stringArray);
-        // process 3 bytes at a time, churning out 4 output bytes
-        // worry about CRLF insertions later
-        for (int i = 0; i < stringArray.length; i += 3) {
-            int j = ((stringArray[i] & 0xff) << 16) +
-                ((stringArray[i + 1] & 0xff) << 8) +
-                (stringArray[i + 2] & 0xff);
-            encoded = encoded + base64code.charAt((j >> 18) & 0x3f) +
-                base64code.charAt((j >> 12) & 0x3f) +
-                base64code.charAt((j >> 6) & 0x3f) +
-                base64code.charAt(j & 0x3f);
-        }
-        // replace encoded padding nulls with "="
-        return encoded.substring(0, encoded.length() -
-								 paddingCount) + "==".substring(0, paddingCount);
+        return encode(stringArray);
+    }
+
+    public static String encode(byte[] bytes) {
+        char[] encoded = new char[(bytes.length + 2) / 3 * 4];
+        int o = 0;
+        // process 3 bytes at a time, churning out 4 output chars
+        int full = bytes.length - bytes.length % 3;
+        for (int i = 0; i < full; i += 3) {
+            int j = ((bytes[i] & 0xff) << 16) +
+                ((bytes[i + 1] & 0xff) << 8) +
+                (bytes[i + 2] & 0xff);
+            encoded[o++] = base64chars[(j >> 18) & 0x3f];
+            encoded[o++] = base64chars[(j >> 12) & 0x3f];
+            encoded[o++] = base64chars[(j >> 6) & 0x3f];
+            encoded[o++] = base64chars[j & 0x3f];
+        }
+        // pad the last group with "="
+        int remaining = bytes.length - full;
+        if (remaining > 0) {
+            int j = (bytes[full] & 0xff) << 16;
+            if (remaining == 2) {
+                j += (bytes[full + 1] & 0xff) << 8;
+            }
+            encoded[o++] = base64chars[(j >> 18) & 0x3f];
+            encoded[o++] = base64chars[(j >> 12) & 0x3f];
+            encoded[o++] = remaining == 2 ? base64chars[(j >> 6) & 0x3f] : '=';
+            encoded[o++] = '=';
+        }
+        return new String(encoded);
+    }
 
+    /**
+     * Decodes standard or URL-safe base64, so session IDs can be decoded as they are.
+     * This is deliberately lenient and never throws: padding is optional, decoding stops
+     * at the first '=', characters outside both alphabets (line breaks from splitLines,
+     * whitespace, anything else) are skipped, and a single character left over at the end
+     * is dropped. Callers that need to reject malformed input must check the decoded bytes,
+     * as the session ID check does by comparing the partner id it finds.
+     */
+    public static byte[] decode(String string) {
+        byte[] decoded = new byte[string.length() * 3 / 4];
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            int value = value(c);
+            if (value < 0) {
+                continue;
+            }
+            bits = (bits << 6) | value;
+            if (++count == 4) {
+                decoded[o++] = (byte) (bits >> 16);
+                decoded[o++] = (byte) (bits >> 8);
+                decoded[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            decoded[o++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            decoded[o++] = (byte) (bits >> 10);
+            decoded[o++] = (byte) (bits >> 2);
+        }
+        if (o == decoded.length) {
+            return decoded;
+        }
+        byte[] trimmed = new byte[o];
+        System.arraycopy(decoded, 0, trimmed, 0, o);
+        return trimmed;
     }
+
     public static String splitLines(String string) {
 
         String lines = "";
@@ -54,4 +131,4 @@ public class Base64 {
         return lines;
 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package com.opentok.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Maps session IDs onto a set of cluster members with consistent hashing, so every node that
+ * knows the same members sends a session to the same place, and adding or removing a member
+ * only moves the sessions that belong on it (about 1/n of them).
+ *
+ * Every member is placed on the ring at virtual_nodes points to even out the load. Lookups
+ * binary search an immutable snapshot without locking; add and remove build a new snapshot.
+ */
+public class ConsistentHashRing {
+
+	private static class Snapshot {
+		final long[] points;      //Sorted
+		final String[] owners;    //Member at each point
+		final List<String> members;
+
+		Snapshot(long[] points, String[] owners, List<String> members) {
+			this.points = points;
+			this.owners = owners;
+			this.members = members;
+		}
+	}
+
+	private final int virtual_nodes;
+	private volatile Snapshot snapshot = new Snapshot(new long[0], new String[0], Collections.<String>emptyList());
+
+	/**
+	 * @virtual_nodes: Points per member. More points even out the load at the cost of memory; at 160 the busiest of 16 members gets about 20% more than an even share.
+	 */
+	public ConsistentHashRing(int virtual_nodes) {
+		if(virtual_nodes < 1) {
+			throw new IllegalArgumentException("At least one virtual node per member is required");
+		}
+		this.virtual_nodes = virtual_nodes;
+	}
+
+	public ConsistentHashRing(int virtual_nodes, List<String> members) {
+		this(virtual_nodes);
+		rebuild(new ArrayList<String>(members));
+	}
+
+	/**
+	 * Adds a member, e.g. a node's host:port. Adding a member twice has no effect.
+	 */
+	public synchronized void add(String member) {
+		List<String> members = new ArrayList<String>(snapshot.members);
+		if(!members.contains(member)) {
+			members.add(member);
+			rebuild(members);
+		}
+	}
+
+	public synchronized void remove(String member) {
+		List<String> members = new ArrayList<String>(snapshot.members);
+		if(members.remove(member)) {
+			rebuild(members);
+		}
+	}
+
+	public List<String> get_members() {
+		return snapshot.members;
+	}
+
+	/**
+	 * Returns the member owning the session, or null when the ring is empty.
+	 * Throws IllegalArgumentException for a null session ID.
+	 */
+	public String locate(String session_id) {
+		return locate_key(SessionIds.shard_key(session_id));
+	}
+
+	/**
+	 * Returns the member owning a shard key from SessionIds.shard_key, or null when the ring is empty.
+	 */
+	public String locate_key(long key) {
+		Snapshot s = snapshot;
+		if(s.points.length == 0) {
+			return null;
+		}
+		int i = Arrays.binarySearch(s.points, key);
+		if(i < 0) {
+			i = -i - 1;
+			if(i == s.points.length) {
+				i = 0;
+			}
+		}
+		return s.owners[i];
+	}
+
+	private void rebuild(List<String> members) {
+		int n = members.size() * virtual_nodes;
+		long[] keys = new long[n];
+		String[] owners = new String[n];
+		int p = 0;
+		for(int m = 0; m < members.size(); m++) {
+			String member = members.get(m);
+			for(int v = 0; v < virtual_nodes; v++) {
+				keys[p] = SessionIds.hash(member + "#" + v);
+				owners[p] = member;
+				p++;
+			}
+		}
+
+		// Sort the points, keeping each owner next to its point; ties go to the lower member name
+		Integer[] index = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			index[i] = i;
+		}
+		final long[] k = keys;
+		final String[] o = owners;
+		Arrays.sort(index, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if(k[a] != k[b]) {
+					return k[a] < k[b] ? -1 : 1;
+				}
+				return o[a].compareTo(o[b]);
+			}
+		});
+		long[] points = new long[n];
+		String[] sorted_owners = new String[n];
+		for(int i = 0; i < n; i++) {
+			points[i] = keys[index[i]];
+			sorted_owners[i] = owners[index[i]];
+		}
+		this.snapshot = new Snapshot(points, sorted_owners, Collections.unmodifiableList(members));
+	}
+}
@@ -45,9 +45,15 @@ public class GenerateMac {
 	*@param key
 	* The signing key. (E.g. USERPIN of '1234')
 	*/
-		StringBuilder hexMAC = new StringBuilder();
-		try {
+		return calculateRFC2104HMAC(data, new_mac(key));
+		}
 
+	/**
+	 * Returns an hmac_sha1 Mac initialised with the key. Setting it up costs more than signing
+	 * a token, so callers signing repeatedly keep it and pass it to calculateRFC2104HMAC.
+	 */
+	public static Mac new_mac(String key) throws java.security.SignatureException {
+		try {
 			// Get an hmac_sha1 key from the raw key bytes
 			byte[] keyBytes = key.getBytes();
 			SecretKeySpec signingKey = new SecretKeySpec(keyBytes, HMAC_SHA1_ALGORITHM);
@@ -55,6 +61,19 @@ public class GenerateMac {
 			// Get an hmac_sha1 Mac instance and initialize with the signing key
 			Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
 			mac.init(signingKey);
+			return mac;
+		}
+		catch (Exception e) {
+			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
+			}
+		}
+
+	/**
+	 * Signs with a Mac from new_mac. A Mac is not thread-safe, so use one per thread.
+	 */
+	public static String calculateRFC2104HMAC(String data, Mac mac) throws java.security.SignatureException {
+		StringBuilder hexMAC = new StringBuilder();
+		try {
 
 			// Compute the hmac on input data bytes
 			byte[] rawHmac = mac.doFinal(data.getBytes());
@@ -62,11 +81,6 @@ public class GenerateMac {
 			for(int i=0;i<rawHmac.length;i++) {
 				hexMAC.append(get_hex(rawHmac[i]));
 			}
-			// Convert raw bytes to Hex
-			//byte[] hexBytes = new Hex().encode(rawHmac);
-
-			//  Covert array of Hex bytes to a String
-			//result = new String(hexBytes, "ISO-8859-1");
 		}
 		catch (Exception e) {
 			throw new SignatureException("Failed to generate HMAC : " + e.getMessage());
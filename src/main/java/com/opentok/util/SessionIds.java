@@ -0,0 +1,122 @@
+package com.opentok.util;
+
+/**
+ * Reads what a session ID carries without a full decode, for sharding and routing.
+ *
+ * A session ID is a version prefix such as "1_" followed by the base64 encoding of
+ * "version~partner_id~...", usually URL-safe and without padding.
+ */
+public class SessionIds {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Returns the partner ID (API key) the session ID was created for, or null when it has none.
+	 * Only the characters up to the end of the partner ID are decoded.
+	 */
+	public static String partner_id(String session_id) {
+		if(null == session_id || session_id.length() < 3) {
+			return null;
+		}
+		PartnerScanner scanner = new PartnerScanner();
+		int bits = 0;
+		int count = 0;
+		for(int i = 2; i < session_id.length(); i++) {
+			char c = session_id.charAt(i);
+			if(c == '=') {
+				break;
+			}
+			int value = Base64.value(c);
+			if(value < 0) {
+				continue;
+			}
+			bits = (bits << 6) | value;
+			if(++count % 4 == 0) {
+				if(scanner.accept(bits >> 16) || scanner.accept(bits >> 8) || scanner.accept(bits)) {
+					return scanner.partner.toString();
+				}
+				bits = 0;
+			}
+		}
+		// One or two last bytes in a partial group
+		int tail = count % 4;
+		if((tail >= 2 && scanner.accept(bits >> (tail * 6 - 8))) || (tail == 3 && scanner.accept(bits >> 2))) {
+			return scanner.partner.toString();
+		}
+		// The end of the ID also ends the partner ID
+		return null == scanner.partner ? null : scanner.partner.toString();
+	}
+
+	/**
+	 * Collects the decoded bytes between the first and second '~'.
+	 */
+	private static class PartnerScanner {
+		StringBuilder partner;
+
+		/**
+		 * Takes the next decoded byte; returns true once the partner ID is complete.
+		 */
+		boolean accept(int b) {
+			char c = (char) (b & 0xff);
+			if(c == '~') {
+				if(null != partner) {
+					return true;
+				}
+				partner = new StringBuilder(16);
+			} else if(null != partner) {
+				partner.append(c);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a 64-bit shard key for the session ID that is stable across processes, JVMs and
+	 * SDK versions. The key is hashed from the 6-bit values of the encoded part, so the standard
+	 * and URL-safe spellings of an ID, with or without padding, get the same key, and nothing
+	 * is decoded. Throws IllegalArgumentException for a null session ID.
+	 */
+	public static long shard_key(String session_id) {
+		if(null == session_id) {
+			throw new IllegalArgumentException("session_id must not be null");
+		}
+		long hash = FNV_OFFSET;
+		for(int i = session_id.length() > 2 && session_id.charAt(1) == '_' ? 2 : 0; i < session_id.length(); i++) {
+			char c = session_id.charAt(i);
+			if(c == '=') {
+				break;
+			}
+			int value = Base64.value(c);
+			if(value >= 0) {
+				hash = (hash ^ value) * FNV_PRIME;
+			}
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Returns a well spread 64-bit hash of s, stable across processes and JVMs.
+	 * Throws IllegalArgumentException when s is null.
+	 */
+	public static long hash(String s) {
+		if(null == s) {
+			throw new IllegalArgumentException("Cannot hash null");
+		}
+		long hash = FNV_OFFSET;
+		for(int i = 0; i < s.length(); i++) {
+			hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	// MurmurHash3 finaliser, so nearby inputs land far apart
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
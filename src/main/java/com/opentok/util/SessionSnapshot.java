@@ -0,0 +1,164 @@
+package com.opentok.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the memory-mapped snapshot of pre-created sessions.
+ *
+ * Layout: magic, version, entry count, then for every entry its create time,
+ * session id, location and session properties. Strings are stored as a
+ * length-prefixed UTF-8 byte run, with a length of -1 standing for null.
+ */
+public class SessionSnapshot {
+	private static final int MAGIC = 0x4f545353; // "OTSS"
+	private static final int VERSION = 1;
+
+	public static class Entry {
+		public final String session_id;
+		public final String location;
+		public final Map<String, String> properties;
+		public final long create_time;
+
+		public Entry(String session_id, String location, Map<String, String> properties, long create_time) {
+			this.session_id = session_id;
+			this.location = location;
+			this.properties = properties;
+			this.create_time = create_time;
+		}
+	}
+
+	/**
+	 * Writes the entries to a temporary file next to the target and renames it into place,
+	 * so a crash mid-write never leaves a truncated snapshot behind.
+	 */
+	public static void write(File file, Collection<Entry> entries) throws IOException {
+		List<byte[][]> encoded = new ArrayList<byte[][]>(entries.size());
+		long[] create_times = new long[entries.size()];
+		long size = 12;
+		for(Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+			Entry entry = i.next();
+			create_times[encoded.size()] = entry.create_time;
+			byte[][] fields = new byte[2 + entry.properties.size() * 2][];
+			fields[0] = bytes(entry.session_id);
+			fields[1] = bytes(entry.location);
+			int f = 2;
+			for(Iterator<Map.Entry<String, String>> p = entry.properties.entrySet().iterator(); p.hasNext(); ) {
+				Map.Entry<String, String> property = p.next();
+				fields[f++] = bytes(property.getKey());
+				fields[f++] = bytes(property.getValue());
+			}
+			size += 8 + 4;
+			for(int j = 0; j < fields.length; j++) {
+				size += 4 + (fields[j] == null ? 0 : fields[j].length);
+			}
+			encoded.add(fields);
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(encoded.size());
+			for(int i = 0; i < create_times.length; i++) {
+				byte[][] fields = encoded.get(i);
+				buffer.putLong(create_times[i]);
+				buffer.putInt((fields.length - 2) / 2);
+				for(int j = 0; j < fields.length; j++) {
+					if(fields[j] == null) {
+						buffer.putInt(-1);
+					} else {
+						buffer.putInt(fields[j].length);
+						buffer.put(fields[j]);
+					}
+				}
+			}
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+
+		if(!tmp.renameTo(file)) {
+			file.delete();
+			if(!tmp.renameTo(file)) {
+				throw new IOException("Unable to move session snapshot into place at " + file);
+			}
+		}
+	}
+
+	/**
+	 * Maps the snapshot and returns every entry created no earlier than min_create_time.
+	 * A missing file yields an empty list, and so does a file that is not a snapshot or is
+	 * truncated or corrupt: the sessions are a cache, and the pool simply refills itself.
+	 */
+	public static List<Entry> read(File file, long min_create_time) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		if(!file.isFile()) {
+			return entries;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if(buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return entries;
+			}
+			int count = buffer.getInt();
+			for(int i = 0; i < count; i++) {
+				long create_time = buffer.getLong();
+				int property_count = buffer.getInt();
+				if(property_count < 0 || property_count > buffer.remaining() / 8) {
+					entries.clear();
+					return entries;
+				}
+				String session_id = string(buffer);
+				String location = string(buffer);
+				Map<String, String> properties = new HashMap<String, String>();
+				for(int p = 0; p < property_count; p++) {
+					properties.put(string(buffer), string(buffer));
+				}
+				if(create_time >= min_create_time) {
+					entries.add(new Entry(session_id, location, properties, create_time));
+				}
+			}
+		} catch(BufferUnderflowException e) {
+			entries.clear();
+		} catch(IllegalArgumentException e) {
+			entries.clear();
+		} finally {
+			raf.close();
+		}
+		return entries;
+	}
+
+	private static byte[] bytes(String s) throws UnsupportedEncodingException {
+		return s == null ? null : s.getBytes("UTF-8");
+	}
+
+	private static String string(MappedByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if(length == -1) {
+			return null;
+		}
+		if(length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Bad string length " + length);
+		}
+		byte[] b = new byte[length];
+		buffer.get(b);
+		return new String(b, "UTF-8");
+	}
+}
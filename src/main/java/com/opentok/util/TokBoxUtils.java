@@ -1,11 +1,17 @@
 package com.opentok.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.io.StringWriter;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -35,18 +41,49 @@ public class TokBoxUtils {
 			throw new OpenTokException("There was an error in retrieving the response. Please make sure that you are pointing to the correct server");
 		}
 
+		Document document = parse(new InputSource(new StringReader(xmlResponse)));
+		if(hasError(document)) {
+			throw new OpenTokException(xmlResponse);
+		}
+
+		return document;
+	}
+
+	public static Document setupDocument(InputStream xmlResponse) throws ParserConfigurationException, SAXException, IOException, OpenTokException {
+		if(null == xmlResponse) {
+			throw new OpenTokException("There was an error in retrieving the response. Please make sure that you are pointing to the correct server");
+		}
+
+		Document document = parse(new InputSource(xmlResponse));
+		if(hasError(document)) {
+			// Only serialize the document back to text on the error path
+			throw new OpenTokException(toXMLString(document));
+		}
+
+		return document;
+	}
+
+	private static Document parse(InputSource source) throws ParserConfigurationException, SAXException, IOException {
 		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 		DocumentBuilder builder;
-		Document document;
 		
 		builder = dbFactory.newDocumentBuilder();
-		document = builder.parse(new InputSource(new StringReader(xmlResponse)));
+		return builder.parse(source);
+	}
+
+	private static boolean hasError(Document document) {
 		Node errorNodes = TokBoxUtils.parseXML("error", document.getElementsByTagName("error"));
 
-		if(null != errorNodes) {
-			throw new OpenTokException(xmlResponse);
-		}
+		return null != errorNodes;
+	}
 
-		return document;
+	private static String toXMLString(Document document) {
+		StringWriter writer = new StringWriter();
+		try {
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(writer));
+		} catch(TransformerException e) {
+			return document.getDocumentElement().getTextContent();
+		}
+		return writer.toString();
 	}
 }
@@ -1,6 +1,7 @@
 package com.opentok.util;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -28,6 +29,22 @@ public class TokBoxXML {
 		}
 	}
 
+	/**
+	 * Parses the response directly from the stream, without building an intermediate String.
+	 */
+	public TokBoxXML(InputStream xmlStream) throws OpenTokException{
+		
+		try {
+			this.xml = TokBoxUtils.setupDocument(xmlStream);
+		} catch(IOException ioe) {
+			throw new OpenTokException(ioe.toString());	
+		} catch(ParserConfigurationException pce) {
+			throw new OpenTokException(pce.toString());
+		} catch(SAXException saxe) {
+			throw new OpenTokException(saxe.toString());
+		}
+	}
+
 
 	public boolean hasElement(String elementName, String parentElement) {
 		Node parentNode = TokBoxUtils.parseXML(parentElement, this.xml.getElementsByTagName(parentElement));
@@ -0,0 +1,321 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * A Transport on the Java 11 HttpClient. It negotiates HTTP/2 through ALPN over https and
+ * an h2c upgrade over http, then sends concurrent calls as streams on one connection per
+ * endpoint; endpoints that only speak HTTP/1.1 get HTTP/1.1 from the same client. Loaded
+ * by OpenTokSDK.set_http2 and compiled separately from src/main/java11.
+ *
+ * HttpClient does not expose its connections, so TLS connections are counted by the
+ * SSLEngines it asks for, one per handshake. Over plain http the count is -1.
+ *
+ * Connecting is not timed on its own: RequestTiming.first_byte covers connecting, sending
+ * and waiting for the response headers, and for asynchronous calls reading the body too.
+ * Only a refused or unresolvable connection is reported as a ConnectException, so a failed
+ * TLS handshake is not retried elsewhere.
+ */
+class HttpClientTransport implements MeasuredTransport {
+
+	private static ExecutorService waiters;
+
+	private final HttpClient client;
+	private final int max_streams;
+	private final Semaphore permits;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong waited_requests = new AtomicLong();
+	private final AtomicLong wait_nanos = new AtomicLong();
+	private final AtomicInteger in_flight = new AtomicInteger();
+	private final AtomicInteger peak_in_flight = new AtomicInteger();
+	private final AtomicLong http2_streams = new AtomicLong();
+	private final AtomicLong tls_connections = new AtomicLong();
+	private final AtomicBoolean used_tls = new AtomicBoolean();
+
+	/**
+	 * @max_streams: When positive, at most this many requests are in flight at once and the
+	 * rest wait for one to finish. Zero leaves the limit to the server's
+	 * SETTINGS_MAX_CONCURRENT_STREAMS.
+	 */
+	HttpClientTransport(int max_streams) throws NoSuchAlgorithmException {
+		this.max_streams = max_streams;
+		this.permits = max_streams > 0 ? new Semaphore(max_streams, true) : null;
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.sslContext(new CountingSSLContext(SSLContext.getDefault(), tls_connections))
+				.build();
+	}
+
+	public TransportResponse send(TransportRequest request) throws IOException {
+		HttpRequest http = build(request);
+		if(null != permits && !permits.tryAcquire()) {
+			wait_for_stream();
+		}
+		started();
+
+		boolean sent = false;
+		try {
+			long mark = System.nanoTime();
+			TransportResponse response = wrap(request, client.send(http, HttpResponse.BodyHandlers.ofInputStream()), mark);
+			sent = true;
+			return response;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.toString());
+		} finally {
+			if(!sent) {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * Sends on HttpClient's own threads. A call that has to wait for a free stream waits on
+	 * a separate thread, never on the caller's. The body is received in full and the stream
+	 * freed before the future completes, so a future that is never read holds no stream.
+	 */
+	public Future<TransportResponse> send_async(final TransportRequest request) {
+		final HttpRequest http = build(request);
+		final CompletableFuture<TransportResponse> result = new CompletableFuture<TransportResponse>();
+		if(null == permits || permits.tryAcquire()) {
+			started();
+			begin_async(request, http, result);
+		} else {
+			waiters().execute(new Runnable() {
+				public void run() {
+					wait_for_stream();
+					started();
+					begin_async(request, http, result);
+				}
+			});
+		}
+		return result;
+	}
+
+	private void begin_async(final TransportRequest request, HttpRequest http, final CompletableFuture<TransportResponse> result) {
+		final long mark = System.nanoTime();
+		CompletableFuture<HttpResponse<byte[]>> response;
+		try {
+			response = client.sendAsync(http, HttpResponse.BodyHandlers.ofByteArray());
+		} catch(RuntimeException e) {
+			release();
+			result.completeExceptionally(e);
+			return;
+		}
+		response.whenComplete(
+				new BiConsumer<HttpResponse<byte[]>, Throwable>() {
+					public void accept(HttpResponse<byte[]> response, Throwable failure) {
+						release();
+						if(null != failure) {
+							result.completeExceptionally(failure instanceof CompletionException && null != failure.getCause()
+									? failure.getCause() : failure);
+							return;
+						}
+						InputStream in = new ByteArrayInputStream(response.body());
+						try {
+							in = decode(response, in);
+						} catch(IOException e) {
+							result.completeExceptionally(e);
+							return;
+						}
+						result.complete(new TransportResponse(received(request, response, mark), in));
+					}
+				});
+	}
+
+	public ConnectionStats stats() {
+		return new ConnectionStats(0, max_streams, requests.get(), in_flight.get(), peak_in_flight.get(),
+				waited_requests.get(), wait_nanos.get(), http2_streams.get(), used_tls.get() ? tls_connections.get() : -1);
+	}
+
+	private HttpRequest build(TransportRequest request) {
+		URI uri = URI.create(request.url);
+		if("https".equalsIgnoreCase(uri.getScheme())) {
+			used_tls.set(true);
+		}
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(request.shared_body()))
+				.header("Content-Type", request.content_type)
+				.header("Accept-Charset", "utf-8")
+				.header("Accept-Encoding", "gzip")
+				.header("Accept", "text/html, application/xhtml+xml,application/xml");
+		for(Iterator<Map.Entry<String, String>> i = request.headers.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, String> header = i.next();
+			builder.setHeader(header.getKey(), header.getValue());
+		}
+		return builder.build();
+	}
+
+	private TransportResponse wrap(TransportRequest request, HttpResponse<InputStream> response, long mark) throws IOException {
+		int status = received(request, response, mark);
+		InputStream in = response.body();
+		try {
+			in = decode(response, in);
+		} catch(IOException e) {
+			in.close();
+			throw e;
+		}
+		return new TransportResponse(status, in) {
+			private final AtomicBoolean closed = new AtomicBoolean();
+
+			public void close() throws IOException {
+				if(!closed.compareAndSet(false, true)) {
+					return;
+				}
+				try {
+					// Closing before the end of the body resets the stream; the connection stays open
+					super.close();
+				} finally {
+					release();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Counts the stream and records the time to the response headers; returns the status.
+	 */
+	private int received(TransportRequest request, HttpResponse<?> response, long mark) {
+		int status = response.statusCode();
+		if(HttpClient.Version.HTTP_2 == response.version()) {
+			http2_streams.incrementAndGet();
+		}
+		RequestTiming timing = request.timing;
+		if(null != timing) {
+			timing.first_byte = System.nanoTime() - mark;
+			timing.status = status;
+		}
+		return status;
+	}
+
+	private static InputStream decode(HttpResponse<?> response, InputStream in) throws IOException {
+		if("gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(null))) {
+			return new GZIPInputStream(in);
+		}
+		return in;
+	}
+
+	private void wait_for_stream() {
+		long start = System.nanoTime();
+		permits.acquireUninterruptibly();
+		waited_requests.incrementAndGet();
+		wait_nanos.addAndGet(System.nanoTime() - start);
+	}
+
+	private void started() {
+		requests.incrementAndGet();
+		int current = in_flight.incrementAndGet();
+		int peak;
+		while(current > (peak = peak_in_flight.get()) && !peak_in_flight.compareAndSet(peak, current));
+	}
+
+	private void release() {
+		in_flight.decrementAndGet();
+		if(null != permits) {
+			permits.release();
+		}
+	}
+
+	private static synchronized ExecutorService waiters() {
+		if(null == waiters) {
+			waiters = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "opentok-http2-wait-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return waiters;
+	}
+
+	/**
+	 * Hands everything to the default SSLContext and counts the engines HttpClient creates.
+	 */
+	private static class CountingSSLContext extends SSLContext {
+		CountingSSLContext(final SSLContext context, final AtomicLong engines) {
+			super(new SSLContextSpi() {
+				protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom random) throws KeyManagementException {
+					context.init(km, tm, random);
+				}
+
+				protected SSLSocketFactory engineGetSocketFactory() {
+					return context.getSocketFactory();
+				}
+
+				protected SSLServerSocketFactory engineGetServerSocketFactory() {
+					return context.getServerSocketFactory();
+				}
+
+				protected SSLEngine engineCreateSSLEngine() {
+					engines.incrementAndGet();
+					return context.createSSLEngine();
+				}
+
+				protected SSLEngine engineCreateSSLEngine(String host, int port) {
+					engines.incrementAndGet();
+					return context.createSSLEngine(host, port);
+				}
+
+				protected SSLSessionContext engineGetServerSessionContext() {
+					return context.getServerSessionContext();
+				}
+
+				protected SSLSessionContext engineGetClientSessionContext() {
+					return context.getClientSessionContext();
+				}
+
+				protected SSLParameters engineGetDefaultSSLParameters() {
+					return context.getDefaultSSLParameters();
+				}
+
+				protected SSLParameters engineGetSupportedSSLParameters() {
+					return context.getSupportedSSLParameters();
+				}
+			}, context.getProvider(), context.getProtocol());
+		}
+	}
+}
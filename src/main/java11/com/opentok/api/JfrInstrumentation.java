@@ -0,0 +1,192 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records SDK activity as JDK Flight Recorder events in the OpenTok category, so it can be
+ * lined up with GC, lock and I/O events in the same recording. Loaded by Instrumentation
+ * only when -Dopentok.jfr=true; the events are then enabled like any other JFR event.
+ *
+ * Session IDs are recorded as their String hash, not in full.
+ */
+class JfrInstrumentation extends Instrumentation {
+
+	@Name("com.opentok.TokenMint")
+	@Label("Token Mint")
+	@Category("OpenTok")
+	@Description("A token generated by generate_token or a TokenTemplate")
+	static class TokenMintEvent extends Event {
+		@Label("Session ID Hash")
+		int session_id_hash;
+
+		@Label("Role")
+		String role;
+
+		@Label("From Template")
+		boolean template;
+
+		@Label("Success")
+		boolean success;
+	}
+
+	@Name("com.opentok.SessionIdDecode")
+	@Label("Session ID Decode")
+	@Category("OpenTok")
+	@Description("Decoding a session ID to check it belongs to the API key")
+	static class SessionIdDecodeEvent extends Event {
+		@Label("Session ID Hash")
+		int session_id_hash;
+
+		@Label("Valid")
+		boolean valid;
+	}
+
+	@Name("com.opentok.HttpRequest")
+	@Label("API Request")
+	@Category("OpenTok")
+	@Description("An API call sent through the transport, until the response status arrives")
+	static class HttpRequestEvent extends Event {
+		@Label("Endpoint")
+		String endpoint;
+
+		@Label("Path")
+		String path;
+
+		@Label("Status")
+		int status;
+
+		@Label("Request Bytes")
+		@DataAmount
+		int request_bytes;
+
+		@Label("Error")
+		String error;
+	}
+
+	@Name("com.opentok.XmlParse")
+	@Label("XML Response Parse")
+	@Category("OpenTok")
+	@Description("Reading and parsing an API response body")
+	static class XmlParseEvent extends Event {
+		@Label("Path")
+		String path;
+
+		@Label("Response Bytes")
+		@DataAmount
+		long response_bytes;
+
+		@Label("Success")
+		boolean success;
+	}
+
+	private static final TokenMintEvent TOKEN = new TokenMintEvent();
+	private static final SessionIdDecodeEvent SESSION_ID = new SessionIdDecodeEvent();
+	private static final HttpRequestEvent HTTP = new HttpRequestEvent();
+	private static final XmlParseEvent PARSE = new XmlParseEvent();
+
+	Object begin_token() {
+		if(!TOKEN.isEnabled()) {
+			return null;
+		}
+		TokenMintEvent event = new TokenMintEvent();
+		event.begin();
+		return event;
+	}
+
+	void end_token(Object handle, String session_id, String role, boolean template, boolean success) {
+		if(null == handle) {
+			return;
+		}
+		TokenMintEvent event = (TokenMintEvent) handle;
+		event.end();
+		if(event.shouldCommit()) {
+			event.session_id_hash = null == session_id ? 0 : session_id.hashCode();
+			event.role = role;
+			event.template = template;
+			event.success = success;
+			event.commit();
+		}
+	}
+
+	Object begin_session_id() {
+		if(!SESSION_ID.isEnabled()) {
+			return null;
+		}
+		SessionIdDecodeEvent event = new SessionIdDecodeEvent();
+		event.begin();
+		return event;
+	}
+
+	void end_session_id(Object handle, String session_id, boolean valid) {
+		if(null == handle) {
+			return;
+		}
+		SessionIdDecodeEvent event = (SessionIdDecodeEvent) handle;
+		event.end();
+		if(event.shouldCommit()) {
+			event.session_id_hash = null == session_id ? 0 : session_id.hashCode();
+			event.valid = valid;
+			event.commit();
+		}
+	}
+
+	Object begin_http(String endpoint, String path) {
+		if(!HTTP.isEnabled()) {
+			return null;
+		}
+		HttpRequestEvent event = new HttpRequestEvent();
+		event.endpoint = endpoint;
+		event.path = path;
+		event.begin();
+		return event;
+	}
+
+	void end_http(Object handle, int status, int request_bytes, String error) {
+		if(null == handle) {
+			return;
+		}
+		HttpRequestEvent event = (HttpRequestEvent) handle;
+		event.end();
+		if(event.shouldCommit()) {
+			event.status = status;
+			event.request_bytes = request_bytes;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	Object begin_parse() {
+		if(!PARSE.isEnabled()) {
+			return null;
+		}
+		XmlParseEvent event = new XmlParseEvent();
+		event.begin();
+		return event;
+	}
+
+	void end_parse(Object handle, String path, long response_bytes, boolean success) {
+		if(null == handle) {
+			return;
+		}
+		XmlParseEvent event = (XmlParseEvent) handle;
+		event.end();
+		if(event.shouldCommit()) {
+			event.path = path;
+			event.response_bytes = response_bytes;
+			event.success = success;
+			event.commit();
+		}
+	}
+}
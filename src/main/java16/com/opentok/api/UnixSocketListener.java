@@ -0,0 +1,77 @@
+/*!
+* OpenTok Java Library
+* http://www.tokbox.com/
+*
+* Copyright 2010, TokBox, Inc.
+*
+*/
+package com.opentok.api;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Accepts TokenDaemon connections on a Unix domain socket, which skips the TCP stack and
+ * leaves access to file permissions on top of the auth token. Loaded by
+ * TokenDaemon.listen_unix only; compiled separately from src/main/java16.
+ */
+class UnixSocketListener implements Closeable {
+
+	private final Path path;
+	private final ServerSocketChannel server;
+
+	UnixSocketListener(final TokenDaemon daemon, File file) throws IOException {
+		this.path = file.toPath();
+		// Replace a socket left behind by a daemon that did not stop cleanly, but nothing else
+		if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			if(!Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+				throw new IOException(path + " exists and is not a socket");
+			}
+			Files.delete(path);
+		}
+		server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(UnixDomainSocketAddress.of(path), 1024);
+		if(path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+		}
+
+		Thread acceptor = new Thread("opentok-token-daemon-accept-unix") {
+			public void run() {
+				while(true) {
+					SocketChannel channel;
+					try {
+						channel = server.accept();
+					} catch(ClosedChannelException e) {
+						return;
+					} catch(IOException e) {
+						e.printStackTrace();
+						return;
+					}
+					daemon.handle(channel, Channels.newInputStream(channel), Channels.newOutputStream(channel));
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public void close() throws IOException {
+		try {
+			server.close();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+}
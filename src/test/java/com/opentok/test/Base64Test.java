@@ -0,0 +1,70 @@
+/*
+ * Tests for the SDK's Base64 codec: round trips against the JDK's encoder, the URL-safe
+ * alphabet, and how the lenient decoder treats malformed input.
+ */
+
+package com.opentok.test;
+
+import com.opentok.util.Base64;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class Base64Test {
+
+    private static String decode(String s) throws Exception {
+        return new String(Base64.decode(s), "UTF-8");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(1);
+        for(int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String encoded = Base64.encode(bytes);
+            Assert.assertEquals("Java SDK tests: encoding differs from the JDK at length " + length,
+                    java.util.Base64.getEncoder().encodeToString(bytes), encoded);
+            Assert.assertTrue("Java SDK tests: round trip failed at length " + length,
+                    Arrays.equals(bytes, Base64.decode(encoded)));
+            Assert.assertTrue("Java SDK tests: unpadded round trip failed at length " + length,
+                    Arrays.equals(bytes, Base64.decode(encoded.replace("=", ""))));
+            String url_safe = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+            Assert.assertTrue("Java SDK tests: URL-safe round trip failed at length " + length,
+                    Arrays.equals(bytes, Base64.decode(url_safe)));
+        }
+    }
+
+    @Test
+    public void testStrings() throws Exception {
+        Assert.assertEquals("Java SDK tests: wrong encoding", "", Base64.encode(""));
+        Assert.assertEquals("Java SDK tests: wrong encoding", "QQ==", Base64.encode("A"));
+        Assert.assertEquals("Java SDK tests: wrong encoding", "QUI=", Base64.encode("AB"));
+        Assert.assertEquals("Java SDK tests: wrong encoding", "QUJD", Base64.encode("ABC"));
+        Assert.assertEquals("Java SDK tests: UTF-8 not used", "w6k=", Base64.encode("é"));
+        Assert.assertEquals("Java SDK tests: session id not decoded", "1~1234~", decode("MX4xMjM0fg"));
+    }
+
+    @Test
+    public void testSplitLines() throws Exception {
+        byte[] bytes = new byte[200];
+        new Random(2).nextBytes(bytes);
+        String split = Base64.splitLines(Base64.encode(bytes));
+        Assert.assertTrue("Java SDK tests: lines not split", split.indexOf("\r\n") == 76);
+        Assert.assertTrue("Java SDK tests: line breaks not skipped", Arrays.equals(bytes, Base64.decode(split)));
+    }
+
+    @Test
+    public void testMalformedInput() throws Exception {
+        Assert.assertEquals("Java SDK tests: empty input", 0, Base64.decode("").length);
+        Assert.assertEquals("Java SDK tests: non-alphabet input should decode to nothing", 0, Base64.decode("@@@@ !!").length);
+        Assert.assertEquals("Java SDK tests: characters outside the alphabet not skipped", "ABC", decode("Q U*J\nD"));
+        Assert.assertEquals("Java SDK tests: non-ASCII not skipped", "ABC", decode("QUéJD"));
+        Assert.assertEquals("Java SDK tests: single trailing character not dropped", "ABC", decode("QUJDR"));
+        Assert.assertEquals("Java SDK tests: decoding should stop at '='", "A", decode("QQ==QUJD"));
+        Assert.assertEquals("Java SDK tests: mixed alphabets", new String(new byte[] { (byte) 0xfb, (byte) 0xff }, "ISO-8859-1"),
+                new String(Base64.decode("-_+/"), "ISO-8859-1").substring(0, 2));
+    }
+}
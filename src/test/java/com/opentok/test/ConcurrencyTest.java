@@ -0,0 +1,122 @@
+/*
+ * Stress tests for one OpenTokSDK shared by many threads. They run offline against the
+ * in-memory transport and check every token's signature, so they need no API credentials.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.InMemoryTransport;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenTemplate;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.util.Base64;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ConcurrencyTest {
+
+    private static final int THREADS = 32;
+    private static final int TOKENS_PER_THREAD = 2000;
+    private static final String SECRET = "secret";
+    private static final String SESSION_ID = "1_" + Base64.encode("1~1234~concurrency~0~").replace("=", "");
+    private static final String[] ROLES = { RoleConstants.PUBLISHER, RoleConstants.SUBSCRIBER, RoleConstants.MODERATOR };
+
+    private OpenTokSDK sdk = new OpenTokSDK(1234, SECRET, "http://api.example.com");
+
+    interface Task {
+        void run(int thread, int i) throws Exception;
+    }
+
+    @Test
+    public void testSharedSdkMintsValidUniqueTokens() throws Exception {
+        final Map<String, Boolean> tokens = new ConcurrentHashMap<String, Boolean>();
+        hammer(new Task() {
+            public void run(int thread, int i) throws Exception {
+                String role = ROLES[(thread + i) % ROLES.length];
+                String token = sdk.generate_token(SESSION_ID, role, null, "thread=" + thread);
+                assertValid(token, role, "thread=" + thread);
+                Assert.assertNull("Java SDK tests: duplicate token " + token, tokens.put(token, Boolean.TRUE));
+            }
+        });
+        Assert.assertEquals("Java SDK tests: tokens lost under contention", THREADS * TOKENS_PER_THREAD, tokens.size());
+    }
+
+    @Test
+    public void testSharedTemplateAndSdkMintUniqueTokens() throws Exception {
+        final TokenTemplate template = sdk.create_token_template(SESSION_ID, RoleConstants.PUBLISHER, null, "shared");
+        final Map<String, Boolean> tokens = new ConcurrentHashMap<String, Boolean>();
+        hammer(new Task() {
+            public void run(int thread, int i) throws Exception {
+                String token = i % 2 == 0 ? template.mint() : sdk.generate_token(SESSION_ID, RoleConstants.PUBLISHER, null, "shared");
+                assertValid(token, RoleConstants.PUBLISHER, "shared");
+                Assert.assertNull("Java SDK tests: duplicate token " + token, tokens.put(token, Boolean.TRUE));
+            }
+        });
+        Assert.assertEquals("Java SDK tests: tokens lost under contention", THREADS * TOKENS_PER_THREAD, tokens.size());
+    }
+
+    @Test
+    public void testSharedSdkParsesSessionsConcurrently() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport(false);
+        transport.respond("/session/create", 200, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                "<sessions><Session><session_id>" + SESSION_ID + "</session_id><partner_id>1234</partner_id></Session></sessions>");
+        sdk.set_transport(transport);
+        hammer(new Task() {
+            public void run(int thread, int i) throws Exception {
+                if(i % 10 == 0) {
+                    Assert.assertEquals("Java SDK tests: session id garbled under contention", SESSION_ID, sdk.create_session("10.0.0." + thread).session_id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs task TOKENS_PER_THREAD times on each of THREADS threads, all released at once,
+     * and rethrows the first failure.
+     */
+    private static void hammer(final Task task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < TOKENS_PER_THREAD; i++) {
+                            task.run(thread, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                try {
+                    result.get(60, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes the token and checks its signature and the fields it was minted with.
+     */
+    private static void assertValid(String token, String role, String connection_data) throws Exception {
+        String data = TestSupport.verify(token, SECRET);
+        Assert.assertTrue("Java SDK tests: wrong session in " + data, data.startsWith("session_id=" + SESSION_ID + "&"));
+        Assert.assertTrue("Java SDK tests: wrong role in " + data, data.contains("&role=" + role));
+        Assert.assertTrue("Java SDK tests: wrong connection data in " + data, data.endsWith("&connection_data=" + connection_data.replace("=", "%3D")));
+    }
+}
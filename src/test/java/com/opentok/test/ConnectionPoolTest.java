@@ -0,0 +1,87 @@
+/*
+ * Tests for set_connection_pooling against a local HTTP server: asynchronous calls that are
+ * never read or are cancelled must give their connection back to the pool.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.ConnectionStats;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.OpenTokSession;
+import com.sun.net.httpserver.HttpServer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+    /**
+     * Creates a session on another thread and fails instead of hanging when no connection
+     * comes free.
+     */
+    private static String create_session(final OpenTokSDK sdk) throws Exception {
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> session = caller.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return sdk.create_session().session_id;
+                }
+            });
+            return session.get(10, TimeUnit.SECONDS);
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    private static void assertReleased(OpenTokSDK sdk) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        ConnectionStats stats;
+        while((stats = sdk.get_connection_stats()).in_flight > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("Java SDK tests: connection left in flight: " + stats, 0, stats.in_flight);
+    }
+
+    @Test
+    public void testUnreadAsyncReleasesConnection() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            sdk.set_connection_pooling(1);
+            Future<OpenTokSession> unread = sdk.create_session_async(null, null);
+            Assert.assertEquals("Java SDK tests: session not created after an unread async call", "1_MX4xMjM0fg", create_session(sdk));
+            assertReleased(sdk);
+            Assert.assertEquals("Java SDK tests: unread response no longer readable", "1_MX4xMjM0fg", unread.get().session_id);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCancelledAsyncReleasesConnection() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, false, 100);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            sdk.set_connection_pooling(1);
+            Future<OpenTokSession> cancelled = sdk.create_session_async(null, null);
+            Thread.sleep(20);
+            Assert.assertTrue("Java SDK tests: running call not cancelled", cancelled.cancel(true));
+            Assert.assertEquals("Java SDK tests: session not created after a cancelled async call", "1_MX4xMjM0fg", create_session(sdk));
+
+            Future<OpenTokSession> completed = sdk.create_session_async(null, null);
+            while(!completed.isDone()) {
+                Thread.sleep(10);
+            }
+            completed.cancel(false);
+            Assert.assertEquals("Java SDK tests: session not created after cancelling a completed call", "1_MX4xMjM0fg", create_session(sdk));
+            assertReleased(sdk);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
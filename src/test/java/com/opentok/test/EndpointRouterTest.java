@@ -0,0 +1,188 @@
+/*
+ * Tests for EndpointRouter's latency-based choice, failover and backoff, its health checks,
+ * and the retry rules OpenTokSDK applies when several endpoints are configured.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.EndpointRouter;
+import com.opentok.api.InMemoryTransport;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.Transport;
+import com.opentok.api.TransportRequest;
+import com.opentok.api.TransportResponse;
+import com.opentok.exception.OpenTokException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class EndpointRouterTest {
+
+    private static final String SESSION_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+            "<sessions><Session><session_id>1_MX4xMjM0fg</session_id><partner_id>1234</partner_id></Session></sessions>";
+
+    private static final String A = "http://a.example.com";
+    private static final String B = "http://b.example.com";
+
+    private static EndpointRouter.Status status(EndpointRouter router, String url) {
+        for(Iterator<EndpointRouter.Status> i = router.get_status().iterator(); i.hasNext(); ) {
+            EndpointRouter.Status status = i.next();
+            if(status.url.equals(url)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testLowestLatencyWins() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList(A, B));
+        router.record_success(A, 10000000L);
+        router.record_success(B, 2000000L);
+        Assert.assertEquals("Java SDK tests: faster endpoint not chosen", B, router.choose());
+
+        for(int i = 0; i < 20; i++) {
+            router.record_success(B, 30000000L);
+        }
+        Assert.assertTrue("Java SDK tests: EWMA did not follow the new latency: " + status(router, B),
+                status(router, B).latency_nanos > 25000000L);
+        Assert.assertEquals("Java SDK tests: slowed endpoint still chosen", A, router.choose());
+    }
+
+    @Test
+    public void testErrorRatePenalty() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList(A, B));
+        router.record_success(A, 2000000L);
+        router.record_success(B, 3000000L);
+        router.record_failure(A);
+        EndpointRouter.Status a = status(router, A);
+        Assert.assertTrue("Java SDK tests: single failure took the endpoint out", a.healthy);
+        Assert.assertEquals("Java SDK tests: failure not counted", 1, a.failures);
+        Assert.assertEquals("Java SDK tests: requests not counted", 2, a.requests);
+        Assert.assertTrue("Java SDK tests: error rate not raised", a.error_rate > 0);
+        Assert.assertEquals("Java SDK tests: erroring endpoint still preferred", B, router.choose());
+    }
+
+    @Test
+    public void testFailoverAndBackoff() throws Exception {
+        EndpointRouter router = new EndpointRouter(Arrays.asList(A, B));
+        for(int i = 0; i < 3; i++) {
+            router.record_failure(A);
+        }
+        Assert.assertFalse("Java SDK tests: endpoint not taken out after consecutive failures", status(router, A).healthy);
+        Assert.assertEquals("Java SDK tests: down endpoint chosen", B, router.choose());
+        Assert.assertEquals("Java SDK tests: failover should avoid the failed endpoint", B, router.choose(A));
+        Assert.assertEquals("Java SDK tests: with the other excluded the down endpoint is the fallback", A, router.choose(B));
+
+        for(int i = 0; i < 3; i++) {
+            router.record_failure(B);
+        }
+        Assert.assertEquals("Java SDK tests: endpoint due back soonest not used when all are down", A, router.choose());
+
+        Thread.sleep(1100);
+        Assert.assertTrue("Java SDK tests: endpoint not back after the first backoff", status(router, A).healthy);
+
+        router.record_failure(A);
+        Assert.assertFalse("Java SDK tests: failure after backoff should take the endpoint out again", status(router, A).healthy);
+        Thread.sleep(1100);
+        Assert.assertFalse("Java SDK tests: backoff did not grow", status(router, A).healthy);
+
+        router.record_success(A, 1000000L);
+        Assert.assertTrue("Java SDK tests: success did not bring the endpoint back", status(router, A).healthy);
+    }
+
+    @Test
+    public void testHealthChecksLeaveCallStatisticsAlone() throws Exception {
+        ServerSocket open = new ServerSocket(0);
+        ServerSocket closed = new ServerSocket(0);
+        String up = "http://127.0.0.1:" + open.getLocalPort();
+        String down = "http://127.0.0.1:" + closed.getLocalPort();
+        closed.close();
+        EndpointRouter router = new EndpointRouter(Arrays.asList(down, up));
+        try {
+            router.start_health_checks(20, 500);
+            long deadline = System.currentTimeMillis() + 5000;
+            while(status(router, down).failed_probes < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            router.stop_health_checks();
+            open.close();
+        }
+        EndpointRouter.Status d = status(router, down);
+        Assert.assertTrue("Java SDK tests: failed probes not counted: " + d, d.failed_probes >= 2);
+        Assert.assertFalse("Java SDK tests: unreachable endpoint left in rotation", d.healthy);
+        Assert.assertEquals("Java SDK tests: probes counted as requests", 0, d.requests);
+        Assert.assertEquals("Java SDK tests: probes counted as failures", 0, d.failures);
+        Assert.assertEquals("Java SDK tests: probes moved the error rate", 0.0, d.error_rate);
+        EndpointRouter.Status u = status(router, up);
+        Assert.assertTrue("Java SDK tests: reachable endpoint taken out: " + u, u.healthy);
+        Assert.assertEquals("Java SDK tests: probes counted as requests", 0, u.requests);
+    }
+
+    @Test
+    public void testEmptyEndpointList() {
+        try {
+            new OpenTokSDK(1234, "secret", new ArrayList<String>());
+            Assert.fail("Java SDK tests: empty endpoint list accepted");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Fails every request to endpoint A with the given exception and answers the rest in memory.
+     */
+    private static class FailingTransport implements Transport {
+        final InMemoryTransport delegate = new InMemoryTransport();
+        final List<String> attempts = Collections.synchronizedList(new ArrayList<String>());
+        final IOException failure;
+
+        FailingTransport(IOException failure) {
+            this.failure = failure;
+            delegate.respond("/session/create", 200, SESSION_XML);
+        }
+
+        public TransportResponse send(TransportRequest request) throws IOException {
+            attempts.add(request.url);
+            if(request.url.startsWith(A)) {
+                throw failure;
+            }
+            return delegate.send(request);
+        }
+
+        public Future<TransportResponse> send_async(TransportRequest request) {
+            return delegate.send_async(request);
+        }
+    }
+
+    @Test
+    public void testFailsOverOnConnectFailure() throws Exception {
+        FailingTransport transport = new FailingTransport(new ConnectException("Connection refused"));
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", Arrays.asList(A, B));
+        sdk.set_transport(transport);
+        Assert.assertEquals("Java SDK tests: session not created on the second endpoint", "1_MX4xMjM0fg", sdk.create_session().session_id);
+        Assert.assertEquals("Java SDK tests: wrong attempts " + transport.attempts,
+                Arrays.asList(A + "/session/create", B + "/session/create"), transport.attempts);
+    }
+
+    @Test
+    public void testNoRetryAfterRequestWasSent() throws Exception {
+        FailingTransport transport = new FailingTransport(new SocketTimeoutException("Read timed out"));
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", Arrays.asList(A, B));
+        sdk.set_transport(transport);
+        try {
+            sdk.create_session();
+            Assert.fail("Java SDK tests: read timeout swallowed");
+        } catch(OpenTokException e) {
+            Assert.assertTrue("Java SDK tests: read timeout not reported: " + e.getMessage(), e.getMessage().contains("Read timed out"));
+        }
+        Assert.assertEquals("Java SDK tests: call retried after a read timeout " + transport.attempts, 1, transport.attempts.size());
+        Assert.assertEquals("Java SDK tests: failure not recorded against the endpoint", 1, sdk.get_endpoint_router().get_status().get(0).failures);
+    }
+}
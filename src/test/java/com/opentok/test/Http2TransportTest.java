@@ -0,0 +1,179 @@
+/*
+ * Tests for the HttpClient transport behind set_http2, against a local HTTP/1.1 server:
+ * sync and async calls, gzip bodies, the stream limit, unread async calls, statistics and
+ * failover. Skipped on runtimes older than Java 11.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.ConnectionStats;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.OpenTokSession;
+import com.opentok.exception.OpenTokException;
+import com.sun.net.httpserver.HttpServer;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class Http2TransportTest {
+
+    /**
+     * Switches the SDK to HTTP/2, or returns false when this JVM has no HttpClient.
+     */
+    private static boolean http2(OpenTokSDK sdk, int max_streams) {
+        try {
+            sdk.set_http2(max_streams);
+            return true;
+        } catch(UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testSyncAndAsyncCalls() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, false, 0);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            if(!http2(sdk, 0)) {
+                return;
+            }
+            Assert.assertEquals("Java SDK tests: session not created", "1_MX4xMjM0fg", sdk.create_session().session_id);
+            Future<OpenTokSession> session = sdk.create_session_async(null, null);
+            Assert.assertEquals("Java SDK tests: async session not created", "1_MX4xMjM0fg", session.get().session_id);
+
+            ConnectionStats stats = sdk.get_connection_stats();
+            Assert.assertNotNull("Java SDK tests: no statistics for the HTTP/2 transport", stats);
+            Assert.assertEquals("Java SDK tests: requests not counted: " + stats, 2, stats.requests);
+            Assert.assertEquals("Java SDK tests: request left in flight: " + stats, 0, stats.in_flight);
+            Assert.assertEquals("Java SDK tests: HTTP/1.1 server counted as HTTP/2: " + stats, 0, stats.http2_streams);
+            Assert.assertEquals("Java SDK tests: plain http connections cannot be counted: " + stats, -1, stats.connections);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testGzipResponse() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, true, 0);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            if(!http2(sdk, 0)) {
+                return;
+            }
+            Assert.assertEquals("Java SDK tests: gzip body not decoded", "1_MX4xMjM0fg", sdk.create_session().session_id);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        HttpServer server = TestSupport.server(403, "<Errors><error code=\"403\"><headline>Invalid partner credentials</headline></error></Errors>", false, 0);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            if(!http2(sdk, 0)) {
+                return;
+            }
+            try {
+                sdk.create_session();
+                Assert.fail("Java SDK tests: error response returned a session");
+            } catch(OpenTokException e) {
+            }
+            Assert.assertEquals("Java SDK tests: stream not released after an error", 0, sdk.get_connection_stats().in_flight);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamLimit() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, false, 50);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            if(!http2(sdk, 1)) {
+                return;
+            }
+            List<Callable<String>> calls = new ArrayList<Callable<String>>();
+            for(int i = 0; i < 4; i++) {
+                calls.add(new Callable<String>() {
+                    public String call() throws Exception {
+                        return sdk.create_session().session_id;
+                    }
+                });
+            }
+            for(Future<String> f : pool.invokeAll(calls)) {
+                Assert.assertEquals("Java SDK tests: session not created", "1_MX4xMjM0fg", f.get());
+            }
+            List<Future<OpenTokSession>> async = new ArrayList<Future<OpenTokSession>>();
+            for(int i = 0; i < 3; i++) {
+                async.add(sdk.create_session_async(null, null));
+            }
+            for(Future<OpenTokSession> f : async) {
+                Assert.assertEquals("Java SDK tests: async session not created", "1_MX4xMjM0fg", f.get().session_id);
+            }
+
+            ConnectionStats stats = sdk.get_connection_stats();
+            Assert.assertEquals("Java SDK tests: stream limit not reported: " + stats, 1, stats.max_streams);
+            Assert.assertEquals("Java SDK tests: stream limit exceeded: " + stats, 1, stats.peak_in_flight);
+            Assert.assertTrue("Java SDK tests: waits not counted: " + stats, stats.waited_requests >= 3);
+            Assert.assertEquals("Java SDK tests: requests not counted: " + stats, 7, stats.requests);
+            Assert.assertEquals("Java SDK tests: request left in flight: " + stats, 0, stats.in_flight);
+        } finally {
+            pool.shutdown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnreadAsyncReleasesStream() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, false, 0);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            final OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            if(!http2(sdk, 1)) {
+                return;
+            }
+            Future<OpenTokSession> unread = sdk.create_session_async(null, null);
+            Future<String> next = pool.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return sdk.create_session().session_id;
+                }
+            });
+            Assert.assertEquals("Java SDK tests: session not created after an unread async call", "1_MX4xMjM0fg", next.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("Java SDK tests: unread response no longer readable", "1_MX4xMjM0fg", unread.get().session_id);
+            Assert.assertEquals("Java SDK tests: stream left in flight", 0, sdk.get_connection_stats().in_flight);
+        } finally {
+            pool.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailsOverOnRefusedConnection() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        String down = "http://127.0.0.1:" + socket.getLocalPort();
+        socket.close();
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML, false, 0);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", Arrays.asList(down, TestSupport.url(server)));
+            if(!http2(sdk, 0)) {
+                return;
+            }
+            // Make the closed port the preferred endpoint
+            sdk.get_endpoint_router().record_success(TestSupport.url(server), 50000000L);
+            Assert.assertEquals("Java SDK tests: session not created on the second endpoint", "1_MX4xMjM0fg", sdk.create_session().session_id);
+            Assert.assertEquals("Java SDK tests: refused connection not recorded", 1, sdk.get_endpoint_router().get_status().get(0).failures);
+            Assert.assertEquals("Java SDK tests: stream not released after a refused connection", 0, sdk.get_connection_stats().in_flight);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
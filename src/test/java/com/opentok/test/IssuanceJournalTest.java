@@ -0,0 +1,165 @@
+/*
+ * Tests for the issuance journal: record encoding, segment rotation, replay across
+ * journals, and what happens to records that race with close().
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.IssuanceJournal;
+import com.opentok.api.IssuanceRecord;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.constants.RoleConstants;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class IssuanceJournalTest {
+
+    private static File directory() throws Exception {
+        File directory = File.createTempFile("journal", "");
+        directory.delete();
+        directory.mkdirs();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static List<IssuanceRecord> replay(File directory) throws Exception {
+        final List<IssuanceRecord> records = new ArrayList<IssuanceRecord>();
+        long count = IssuanceJournal.replay(directory, new IssuanceJournal.Handler() {
+            public void on_record(IssuanceRecord record) {
+                records.add(record);
+            }
+        });
+        Assert.assertEquals("Java SDK tests: replay count differs from records handed out", records.size(), count);
+        return records;
+    }
+
+    private static void assertSame(IssuanceRecord expected, IssuanceRecord actual) {
+        Assert.assertEquals("Java SDK tests: record not round tripped", expected.toString(), actual.toString());
+        Assert.assertEquals("Java SDK tests: session id not round tripped", expected.session_id, actual.session_id);
+        Assert.assertEquals("Java SDK tests: role not round tripped", expected.role, actual.role);
+        Assert.assertEquals("Java SDK tests: create time not round tripped", expected.create_time, actual.create_time);
+        Assert.assertEquals("Java SDK tests: expire time not round tripped", expected.expire_time, actual.expire_time);
+        Assert.assertEquals("Java SDK tests: nonce not round tripped", expected.nonce, actual.nonce);
+        Assert.assertEquals("Java SDK tests: connection data not round tripped", expected.connection_data, actual.connection_data);
+    }
+
+    @Test
+    public void testRecordEncoding() throws Exception {
+        File directory = directory();
+        IssuanceRecord[] records = {
+            new IssuanceRecord("1_MX4xMjM0fg", "publisher", 1700000000L, 0, -5, null),
+            new IssuanceRecord("2_MX4xMjM0fg", "", 1700000001L, 1700003601L, Integer.MAX_VALUE, ""),
+            new IssuanceRecord("3_MX4xMjM0fg", "moderator", Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE, "name=Zoë & ☃"),
+            new IssuanceRecord(null, null, 0, 0, 0, null),
+        };
+        IssuanceJournal journal = new IssuanceJournal(directory);
+        for(int i = 0; i < records.length; i++) {
+            journal.record(records[i]);
+        }
+        journal.close();
+        Assert.assertEquals("Java SDK tests: records not written", records.length, journal.written());
+
+        List<IssuanceRecord> replayed = replay(directory);
+        Assert.assertEquals("Java SDK tests: wrong number of records replayed", records.length, replayed.size());
+        for(int i = 0; i < records.length; i++) {
+            assertSame(records[i], replayed.get(i));
+        }
+    }
+
+    @Test
+    public void testRotationAndReopen() throws Exception {
+        File directory = directory();
+        IssuanceJournal journal = new IssuanceJournal(directory, 4096, 1024, 10);
+        for(int i = 0; i < 500; i++) {
+            journal.record(new IssuanceRecord("1_MX4xMjM0fg", "publisher", 1700000000L + i, 0, i, "user=" + i));
+        }
+        journal.close();
+        int segments = directory.list().length;
+        Assert.assertTrue("Java SDK tests: 500 records should not fit one 4KB segment", segments > 1);
+
+        journal = new IssuanceJournal(directory, 4096, 1024, 10);
+        journal.record(new IssuanceRecord("1_MX4xMjM0fg", "publisher", 1700000500L, 0, 500, "user=500"));
+        journal.close();
+        Assert.assertEquals("Java SDK tests: reopened journal should start a new segment", segments + 1, directory.list().length);
+
+        List<IssuanceRecord> replayed = replay(directory);
+        Assert.assertEquals("Java SDK tests: records lost across segments", 501, replayed.size());
+        for(int i = 0; i < replayed.size(); i++) {
+            Assert.assertEquals("Java SDK tests: records out of order", i, replayed.get(i).nonce);
+            Assert.assertEquals("Java SDK tests: record mangled at a segment boundary", "user=" + i, replayed.get(i).connection_data);
+        }
+    }
+
+    @Test
+    public void testOversizedRecord() throws Exception {
+        File directory = directory();
+        StringBuilder data = new StringBuilder();
+        for(int i = 0; i < 6000; i++) {
+            data.append('x');
+        }
+        IssuanceJournal journal = new IssuanceJournal(directory, 4096, 1024, 10);
+        journal.record(new IssuanceRecord("1_MX4xMjM0fg", "publisher", 1, 0, 1, data.toString()));
+        journal.record(new IssuanceRecord("1_MX4xMjM0fg", "publisher", 2, 0, 2, null));
+        journal.close();
+        List<IssuanceRecord> replayed = replay(directory);
+        Assert.assertEquals("Java SDK tests: records lost", 2, replayed.size());
+        Assert.assertEquals("Java SDK tests: oversized record mangled", data.toString(), replayed.get(0).connection_data);
+    }
+
+    @Test
+    public void testTokensJournaled() throws Exception {
+        File directory = directory();
+        IssuanceJournal journal = new IssuanceJournal(directory);
+        OpenTokSDK sdk = TestSupport.deterministic_sdk(1700000000L, 9);
+        sdk.set_issuance_journal(journal);
+        sdk.generate_token("1_MX4xMjM0fg", RoleConstants.PUBLISHER, 1700003600L, "name=Jo & Bo");
+        sdk.create_token_template("1_MX4xMjM0fg", RoleConstants.SUBSCRIBER, 60L, null).mint();
+        sdk.try_generate_token("1_MX4xMjM0fg", "admin", null, null);
+        journal.close();
+
+        List<IssuanceRecord> replayed = replay(directory);
+        Assert.assertEquals("Java SDK tests: rejected token journaled or minted token missing", 2, replayed.size());
+        Assert.assertEquals("Java SDK tests: wrong role journaled", "publisher", replayed.get(0).role);
+        Assert.assertEquals("Java SDK tests: expire time not journaled", 1700003600L, replayed.get(0).expire_time);
+        Assert.assertEquals("Java SDK tests: connection data should be journaled as passed in", "name=Jo & Bo", replayed.get(0).connection_data);
+        Assert.assertEquals("Java SDK tests: template expiry not journaled", 1700000060L, replayed.get(1).expire_time);
+        Assert.assertFalse("Java SDK tests: nonces repeat", replayed.get(0).nonce == replayed.get(1).nonce);
+    }
+
+    @Test
+    public void testCloseRace() throws Exception {
+        for(int round = 0; round < 20; round++) {
+            File directory = directory();
+            final IssuanceJournal journal = new IssuanceJournal(directory, 1 << 20, 64, 5);
+            final AtomicLong attempts = new AtomicLong();
+            final CountDownLatch started = new CountDownLatch(4);
+            Thread[] threads = new Thread[4];
+            for(int t = 0; t < threads.length; t++) {
+                final int id = t;
+                threads[t] = new Thread() {
+                    public void run() {
+                        started.countDown();
+                        for(int i = 0; i < 2000; i++) {
+                            attempts.incrementAndGet();
+                            journal.record(new IssuanceRecord("1_MX4xMjM0fg", "publisher", i, 0, id, null));
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            started.await();
+            journal.close();
+            for(int t = 0; t < threads.length; t++) {
+                threads[t].join();
+            }
+            Assert.assertEquals("Java SDK tests: records neither written nor counted as dropped",
+                    attempts.get(), journal.written() + journal.dropped());
+            Assert.assertEquals("Java SDK tests: written records missing from the journal", journal.written(), replay(directory).size());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Tests for OpenTokSessionPool take, fill and snapshot restore, run against an in-memory
+ * transport that hands out a new session ID for every /session/create.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.InMemoryTransport;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.OpenTokSessionPool;
+import com.opentok.api.TransportRequest;
+import com.opentok.api.TransportResponse;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.util.SessionSnapshot;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class OpenTokSessionPoolTest {
+
+    private static class NumberingTransport extends InMemoryTransport {
+        private int created;
+
+        public synchronized TransportResponse send(TransportRequest request) throws IOException {
+            created++;
+            respond("/session/create", 200, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+                    "<sessions><Session><session_id>" + session(created) + "</session_id><partner_id>1234</partner_id></Session></sessions>");
+            return super.send(request);
+        }
+    }
+
+    private final NumberingTransport transport = new NumberingTransport();
+    private final OpenTokSDK sdk;
+
+    public OpenTokSessionPoolTest() {
+        sdk = new OpenTokSDK(1234, "secret", "http://api.example.com");
+        sdk.set_transport(transport);
+    }
+
+    private static String session(int i) {
+        return i + "_MX4xMjM0fg";
+    }
+
+    private static File temp() throws Exception {
+        File file = File.createTempFile("pool", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private OpenTokSessionPool pool(String location) {
+        return new OpenTokSessionPool(sdk, location, null, 60000);
+    }
+
+    @Test
+    public void testTakeFromFilledPool() throws Exception {
+        OpenTokSessionPool pool = pool("10.0.0.1");
+        Assert.assertEquals("Java SDK tests: wrong number of sessions created", 2, pool.fill(2));
+        Assert.assertEquals("Java SDK tests: full pool filled again", 0, pool.fill(2));
+        Assert.assertEquals("Java SDK tests: pooled sessions not taken in order", session(1), pool.take().session_id);
+        Assert.assertEquals("Java SDK tests: pooled sessions not taken in order", session(2), pool.take().session_id);
+        Assert.assertEquals("Java SDK tests: pool should be empty", 0, pool.size());
+        Assert.assertEquals("Java SDK tests: empty pool did not create a session", session(3), pool.take().session_id);
+        Assert.assertEquals("Java SDK tests: wrong number of API calls", 3, transport.get_requests().size());
+    }
+
+    @Test
+    public void testTakeSkipsExpired() throws Exception {
+        OpenTokSessionPool pool = new OpenTokSessionPool(sdk, null, null, 50);
+        pool.fill(1);
+        Thread.sleep(100);
+        Assert.assertEquals("Java SDK tests: expired session handed out", session(2), pool.take().session_id);
+        Assert.assertEquals("Java SDK tests: expired session kept", 0, pool.size());
+    }
+
+    @Test
+    public void testRestoreConsumesSnapshot() throws Exception {
+        File file = temp();
+        OpenTokSessionPool saved = pool("10.0.0.1");
+        saved.fill(2);
+        saved.save(file);
+
+        OpenTokSessionPool restarted = pool("10.0.0.1");
+        Assert.assertEquals("Java SDK tests: wrong number of sessions restored", 2, restarted.restore(file));
+        Assert.assertFalse("Java SDK tests: consumed snapshot not deleted", file.exists());
+        Assert.assertEquals("Java SDK tests: sessions restored twice", 0, pool("10.0.0.1").restore(file));
+        Assert.assertEquals("Java SDK tests: restored session not taken first", session(1), restarted.take().session_id);
+        Assert.assertEquals("Java SDK tests: restore called the API", 2, transport.get_requests().size());
+    }
+
+    @Test
+    public void testRestoreLeavesOtherPoolsEntries() throws Exception {
+        File file = temp();
+        SessionProperties properties = new SessionProperties();
+        properties.p2p_preference = "enabled";
+        List<SessionSnapshot.Entry> entries = new ArrayList<SessionSnapshot.Entry>();
+        long now = System.currentTimeMillis();
+        entries.add(new SessionSnapshot.Entry(session(11), "10.0.0.1", new HashMap<String, String>(), now));
+        entries.add(new SessionSnapshot.Entry(session(12), "10.0.0.2", new HashMap<String, String>(), now));
+        entries.add(new SessionSnapshot.Entry(session(13), "10.0.0.1", properties.to_map(), now));
+        SessionSnapshot.write(file, entries);
+
+        Assert.assertEquals("Java SDK tests: wrong number of sessions restored", 1, pool("10.0.0.1").restore(file));
+        List<SessionSnapshot.Entry> left = SessionSnapshot.read(file, 0);
+        Assert.assertEquals("Java SDK tests: other pools' entries not kept", 2, left.size());
+        Assert.assertEquals("Java SDK tests: wrong entry kept", session(12), left.get(0).session_id);
+        Assert.assertEquals("Java SDK tests: wrong entry kept", session(13), left.get(1).session_id);
+
+        OpenTokSessionPool with_properties = new OpenTokSessionPool(sdk, "10.0.0.1", properties, 60000);
+        Assert.assertEquals("Java SDK tests: properties not matched", 1, with_properties.restore(file));
+        Assert.assertEquals("Java SDK tests: wrong session restored", session(13), with_properties.take().session_id);
+        Assert.assertEquals("Java SDK tests: consumed entry still in the snapshot", 1, SessionSnapshot.read(file, 0).size());
+    }
+
+    @Test
+    public void testRestoreSkipsPooledSessions() throws Exception {
+        File file = temp();
+        OpenTokSessionPool pool = pool("10.0.0.1");
+        pool.fill(2);
+        pool.save(file);
+        Assert.assertEquals("Java SDK tests: pooled sessions restored again", 0, pool.restore(file));
+        Assert.assertEquals("Java SDK tests: pool holds duplicates", 2, pool.size());
+        Assert.assertFalse("Java SDK tests: consumed snapshot not deleted", file.exists());
+    }
+
+    @Test
+    public void testRestoreMissingSnapshot() throws Exception {
+        File file = temp();
+        file.delete();
+        Assert.assertEquals("Java SDK tests: sessions restored from nothing", 0, pool("10.0.0.1").restore(file));
+    }
+}
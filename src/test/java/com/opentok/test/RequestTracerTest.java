@@ -0,0 +1,136 @@
+/*
+ * Tests for the RequestTracer callbacks and the RequestTiming phases, against a local
+ * HTTP server for the default transport and the in-memory transport for the rest.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.InMemoryTransport;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.RequestTiming;
+import com.opentok.api.RequestTracer;
+import com.opentok.exception.OpenTokException;
+import com.sun.net.httpserver.HttpServer;
+import java.net.ServerSocket;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class RequestTracerTest {
+
+    private static class RecordingTracer implements RequestTracer {
+        final List<RequestTiming> started = Collections.synchronizedList(new ArrayList<RequestTiming>());
+        final List<RequestTiming> ended = Collections.synchronizedList(new ArrayList<RequestTiming>());
+        final List<OpenTokException> errors = Collections.synchronizedList(new ArrayList<OpenTokException>());
+
+        public void on_start(RequestTiming timing) {
+            Assert.assertEquals("Java SDK tests: total set before the call ended", -1, timing.total);
+            started.add(timing);
+        }
+
+        public void on_end(RequestTiming timing, OpenTokException error) {
+            ended.add(timing);
+            errors.add(error);
+        }
+    }
+
+    @Test
+    public void testPhasesOverHttp() throws Exception {
+        HttpServer server = TestSupport.server(200, TestSupport.SESSION_XML);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            RecordingTracer tracer = new RecordingTracer();
+            sdk.set_request_tracer(tracer);
+            sdk.create_session();
+            sdk.create_session();
+
+            Assert.assertEquals("Java SDK tests: on_start not called per request", 2, tracer.started.size());
+            Assert.assertEquals("Java SDK tests: on_end not called per request", 2, tracer.ended.size());
+            for(int i = 0; i < 2; i++) {
+                RequestTiming timing = tracer.ended.get(i);
+                Assert.assertSame("Java SDK tests: on_end got a different timing", tracer.started.get(i), timing);
+                Assert.assertNull("Java SDK tests: successful call reported an error", tracer.errors.get(i));
+                Assert.assertEquals("Java SDK tests: wrong url", "/session/create", timing.url);
+                Assert.assertEquals("Java SDK tests: wrong status", 200, timing.status);
+                Assert.assertTrue("Java SDK tests: connect not timed: " + timing, timing.connect >= 0);
+                Assert.assertTrue("Java SDK tests: first_byte not timed: " + timing, timing.first_byte >= 0);
+                Assert.assertTrue("Java SDK tests: body_read not timed: " + timing, timing.body_read >= 0);
+                Assert.assertTrue("Java SDK tests: parse not timed: " + timing, timing.parse >= 0);
+                Assert.assertTrue("Java SDK tests: phases exceed total: " + timing,
+                        timing.connect + timing.first_byte + timing.body_read + timing.parse <= timing.total);
+            }
+            Assert.assertFalse("Java SDK tests: correlation ids repeat",
+                    tracer.ended.get(0).correlation_id.equals(tracer.ended.get(1).correlation_id));
+            Assert.assertTrue("Java SDK tests: correlation id not prefixed by the api key: " + tracer.ended.get(0).correlation_id,
+                    tracer.ended.get(0).correlation_id.startsWith("1234-"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        HttpServer server = TestSupport.server(403, "<Errors><error code=\"403\"><headline>Invalid partner credentials</headline></error></Errors>");
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            RecordingTracer tracer = new RecordingTracer();
+            sdk.set_request_tracer(tracer);
+            try {
+                sdk.create_session();
+                Assert.fail("Java SDK tests: error response returned a session");
+            } catch(OpenTokException e) {
+            }
+            Assert.assertEquals("Java SDK tests: on_end should fire once", 1, tracer.ended.size());
+            Assert.assertEquals("Java SDK tests: error status not recorded", 403, tracer.ended.get(0).status);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://127.0.0.1:" + port);
+        RecordingTracer tracer = new RecordingTracer();
+        sdk.set_request_tracer(tracer);
+        try {
+            sdk.create_session();
+            Assert.fail("Java SDK tests: call to a closed port succeeded");
+        } catch(OpenTokException e) {
+        }
+        Assert.assertEquals("Java SDK tests: on_end should fire once", 1, tracer.ended.size());
+        Assert.assertNotNull("Java SDK tests: connect failure not reported", tracer.errors.get(0));
+        Assert.assertEquals("Java SDK tests: status set without a response", -1, tracer.ended.get(0).status);
+        Assert.assertTrue("Java SDK tests: total not set: " + tracer.ended.get(0), tracer.ended.get(0).total >= 0);
+    }
+
+    @Test
+    public void testInMemoryTransportPhases() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport();
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://api.example.com");
+        sdk.set_transport(transport);
+        RecordingTracer tracer = new RecordingTracer();
+        sdk.set_request_tracer(tracer);
+        sdk.create_session();
+
+        RequestTiming timing = tracer.ended.get(0);
+        Assert.assertEquals("Java SDK tests: unobserved phase should stay -1", -1, timing.connect);
+        Assert.assertTrue("Java SDK tests: parse not timed: " + timing, timing.parse >= 0);
+        Assert.assertTrue("Java SDK tests: total not set: " + timing, timing.total >= 0);
+    }
+
+    @Test
+    public void testNoTracer() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport();
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://api.example.com");
+        sdk.set_transport(transport);
+        sdk.create_session();
+        Assert.assertNull("Java SDK tests: timing attached without a tracer", transport.get_requests().get(0).timing);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Tests for SessionIds: reading the partner ID out of every spelling of a session ID and out
+ * of malformed or truncated ones, and the stability of shard keys across those spellings.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenResult;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.util.SessionIds;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SessionIdsTest {
+
+    private static String standard(String raw) throws Exception {
+        return "1_" + java.util.Base64.getEncoder().encodeToString(raw.getBytes("UTF-8"));
+    }
+
+    private static String url_safe(String raw) throws Exception {
+        return "1_" + java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes("UTF-8"));
+    }
+
+    /**
+     * Raw IDs whose lengths cover every padding count and put the partner ID at every offset
+     * within a base64 group.
+     */
+    private static List<String> raw_ids(String partner_id) {
+        List<String> raw = new ArrayList<String>();
+        String[] versions = { "1", "10", "100" };
+        for(int v = 0; v < versions.length; v++) {
+            for(int extra = 0; extra < 6; extra++) {
+                StringBuilder id = new StringBuilder(versions[v]).append('~').append(partner_id).append("~Mon Jan 01 00:00:00 PST 2024~");
+                for(int i = 0; i < extra; i++) {
+                    id.append((char) ('a' + i));
+                }
+                raw.add(id.append('~').toString());
+            }
+        }
+        return raw;
+    }
+
+    @Test
+    public void testEverySpelling() throws Exception {
+        Set<Integer> paddings = new HashSet<Integer>();
+        for(Iterator<String> i = raw_ids("1234").iterator(); i.hasNext(); ) {
+            String raw = i.next();
+            String padded = standard(raw);
+            paddings.add(padded.length() - padded.replace("=", "").length());
+            Assert.assertEquals("Java SDK tests: partner not read from " + padded, "1234", SessionIds.partner_id(padded));
+            Assert.assertEquals("Java SDK tests: partner not read without padding", "1234", SessionIds.partner_id(padded.replace("=", "")));
+            Assert.assertEquals("Java SDK tests: partner not read from URL-safe " + url_safe(raw), "1234", SessionIds.partner_id(url_safe(raw)));
+        }
+        Assert.assertEquals("Java SDK tests: not every padding count covered", new HashSet<Integer>(Arrays.asList(0, 1, 2)), paddings);
+    }
+
+    @Test
+    public void testUrlSafeCharacters() throws Exception {
+        // '?' and '~' runs encode to '/' and '+' in the standard alphabet
+        String raw = "1~1234~???~~~>>>~";
+        String standard = standard(raw);
+        String url_safe = url_safe(raw);
+        Assert.assertTrue("Java SDK tests: test ID has no '+' or '/': " + standard, standard.contains("+") && standard.contains("/"));
+        Assert.assertTrue("Java SDK tests: test ID has no '-' or '_': " + url_safe, url_safe.contains("-") && url_safe.substring(2).contains("_"));
+        Assert.assertEquals("Java SDK tests: partner not read from the standard alphabet", "1234", SessionIds.partner_id(standard));
+        Assert.assertEquals("Java SDK tests: partner not read from the URL-safe alphabet", "1234", SessionIds.partner_id(url_safe));
+        Assert.assertEquals("Java SDK tests: spellings get different shard keys", SessionIds.shard_key(standard), SessionIds.shard_key(url_safe));
+    }
+
+    @Test
+    public void testWrongKey() throws Exception {
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://api.example.com");
+        for(Iterator<String> i = raw_ids("12345").iterator(); i.hasNext(); ) {
+            String id = url_safe(i.next());
+            Assert.assertEquals("Java SDK tests: wrong partner read from " + id, "12345", SessionIds.partner_id(id));
+            Assert.assertEquals("Java SDK tests: session of another partner accepted", TokenResult.Error.INVALID_SESSION_ID,
+                    sdk.try_generate_token(id, RoleConstants.PUBLISHER, null, null).error);
+        }
+        Assert.assertEquals("Java SDK tests: prefix of the key accepted", TokenResult.Error.INVALID_SESSION_ID,
+                sdk.try_generate_token(url_safe("1~123~x~"), RoleConstants.PUBLISHER, null, null).error);
+    }
+
+    @Test
+    public void testMissingSeparators() throws Exception {
+        Assert.assertNull("Java SDK tests: partner read without any '~'", SessionIds.partner_id(url_safe("1-1234-Mon Jan 01-0")));
+        Assert.assertNull("Java SDK tests: partner read without any '~'", SessionIds.partner_id(url_safe("no separators at all")));
+        Assert.assertEquals("Java SDK tests: end of ID should end the partner ID", "1234", SessionIds.partner_id(url_safe("1~1234")));
+        Assert.assertEquals("Java SDK tests: empty partner ID", "", SessionIds.partner_id(url_safe("1~~x~")));
+        Assert.assertNull("Java SDK tests: null ID", SessionIds.partner_id(null));
+        Assert.assertNull("Java SDK tests: empty ID", SessionIds.partner_id(""));
+        Assert.assertNull("Java SDK tests: prefix only", SessionIds.partner_id("1_"));
+        Assert.assertNull("Java SDK tests: padding only", SessionIds.partner_id("1_=="));
+        Assert.assertNull("Java SDK tests: no base64 characters", SessionIds.partner_id("1_!!!!"));
+    }
+
+    @Test
+    public void testTruncatedInput() throws Exception {
+        for(Iterator<String> i = raw_ids("1234").iterator(); i.hasNext(); ) {
+            String id = url_safe(i.next());
+            for(int length = 0; length <= id.length(); length++) {
+                String cut = id.substring(0, length);
+                String partner = SessionIds.partner_id(cut);
+                Assert.assertTrue("Java SDK tests: " + cut + " read as partner " + partner, null == partner || "1234".startsWith(partner));
+                SessionIds.shard_key(cut);
+            }
+        }
+    }
+
+    @Test
+    public void testShardKeys() throws Exception {
+        String id = "1_MX4xMjM0fk1vbiBKYW4gMDEgMDA6MDA6MDAgUFNUIDIwMjR-MH4";
+        // Pinned so shards stay put across SDK versions
+        Assert.assertEquals("Java SDK tests: shard key changed", -1843268806750716168L, SessionIds.shard_key(id));
+        Assert.assertEquals("Java SDK tests: member hash changed", 4645899521101453297L, SessionIds.hash("member-1#0"));
+        Assert.assertEquals("Java SDK tests: padding changed the shard key", SessionIds.shard_key(id), SessionIds.shard_key(id + "=="));
+        Assert.assertFalse("Java SDK tests: different IDs share a shard key",
+                SessionIds.shard_key(id) == SessionIds.shard_key(id.replace("MH4", "MX4")));
+        try {
+            SessionIds.shard_key(null);
+            Assert.fail("Java SDK tests: null session ID accepted");
+        } catch(IllegalArgumentException e) {
+        }
+        try {
+            SessionIds.hash(null);
+            Assert.fail("Java SDK tests: null hashed");
+        } catch(IllegalArgumentException e) {
+        }
+    }
+}
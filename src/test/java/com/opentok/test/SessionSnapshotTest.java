@@ -0,0 +1,106 @@
+/*
+ * Tests for the memory-mapped session snapshot used by the session pool.
+ */
+
+package com.opentok.test;
+
+import com.opentok.util.SessionSnapshot;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class SessionSnapshotTest {
+
+    private static List<SessionSnapshot.Entry> entries() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("p2p.preference", "enabled");
+        properties.put("echoSuppression.enabled", "true");
+        List<SessionSnapshot.Entry> entries = new ArrayList<SessionSnapshot.Entry>();
+        entries.add(new SessionSnapshot.Entry("1_MX4xMjM0fg", "10.0.0.1", properties, 1000L));
+        entries.add(new SessionSnapshot.Entry("2_MX4xMjM0fg", null, new HashMap<String, String>(), 2000L));
+        entries.add(new SessionSnapshot.Entry("3_MX4xMjM0fgé", "10.0.0.3", properties, 3000L));
+        return entries;
+    }
+
+    private static File temp() throws Exception {
+        File file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = temp();
+        List<SessionSnapshot.Entry> written = entries();
+        SessionSnapshot.write(file, written);
+
+        List<SessionSnapshot.Entry> read = SessionSnapshot.read(file, 0);
+        Assert.assertEquals("Java SDK tests: wrong number of entries read back", written.size(), read.size());
+        for(int i = 0; i < written.size(); i++) {
+            SessionSnapshot.Entry w = written.get(i);
+            SessionSnapshot.Entry r = read.get(i);
+            Assert.assertEquals("Java SDK tests: session id not round tripped", w.session_id, r.session_id);
+            Assert.assertEquals("Java SDK tests: location not round tripped", w.location, r.location);
+            Assert.assertEquals("Java SDK tests: properties not round tripped", w.properties, r.properties);
+            Assert.assertEquals("Java SDK tests: create time not round tripped", w.create_time, r.create_time);
+        }
+    }
+
+    @Test
+    public void testAgeFilter() throws Exception {
+        File file = temp();
+        SessionSnapshot.write(file, entries());
+
+        List<SessionSnapshot.Entry> read = SessionSnapshot.read(file, 2000L);
+        Assert.assertEquals("Java SDK tests: entries older than the cutoff not filtered", 2, read.size());
+        Assert.assertEquals("Java SDK tests: entry at the cutoff dropped", "2_MX4xMjM0fg", read.get(0).session_id);
+        Assert.assertEquals("Java SDK tests: all entries should be too old", 0, SessionSnapshot.read(file, 3001L).size());
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() throws Exception {
+        File file = temp();
+        file.delete();
+        Assert.assertTrue("Java SDK tests: missing snapshot should read as empty", SessionSnapshot.read(file, 0).isEmpty());
+    }
+
+    @Test
+    public void testBadFileIsEmpty() throws Exception {
+        File file = temp();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("not a snapshot at all");
+        raf.close();
+        Assert.assertTrue("Java SDK tests: foreign file should read as empty", SessionSnapshot.read(file, 0).isEmpty());
+    }
+
+    @Test
+    public void testTruncatedFileIsEmpty() throws Exception {
+        File file = temp();
+        SessionSnapshot.write(file, entries());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+        Assert.assertTrue("Java SDK tests: truncated snapshot should read as empty", SessionSnapshot.read(file, 0).isEmpty());
+    }
+
+    @Test
+    public void testCorruptLengthIsEmpty() throws Exception {
+        File file = temp();
+        SessionSnapshot.write(file, entries());
+        // the first entry's session id length sits after the header, create time and property count
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(12 + 8 + 4);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+        Assert.assertTrue("Java SDK tests: corrupt string length should read as empty", SessionSnapshot.read(file, 0).isEmpty());
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(12 + 8 + 4);
+        raf.writeInt(-7);
+        raf.close();
+        Assert.assertTrue("Java SDK tests: negative string length should read as empty", SessionSnapshot.read(file, 0).isEmpty());
+    }
+}
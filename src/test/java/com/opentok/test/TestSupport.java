@@ -0,0 +1,111 @@
+/*
+ * Setup shared by the offline tests: SDKs with a deterministic clock and nonce source,
+ * token signature checks, and a local HTTP server standing in for the API.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.DeterministicTokenSource;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.util.Base64;
+import com.opentok.util.GenerateMac;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+final class TestSupport {
+
+    static final String SESSION_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>" +
+            "<sessions><Session><session_id>1_MX4xMjM0fg</session_id><partner_id>1234</partner_id></Session></sessions>";
+
+    private TestSupport() {
+    }
+
+    /**
+     * Returns an SDK for partner 1234 that mints from source, so its tokens are the same on every run.
+     */
+    static OpenTokSDK deterministic_sdk(String secret, DeterministicTokenSource source) {
+        OpenTokSDK sdk = new OpenTokSDK(1234, secret, "http://api.example.com");
+        sdk.set_clock(source);
+        sdk.set_nonce_source(source);
+        return sdk;
+    }
+
+    static OpenTokSDK deterministic_sdk(long now, int seed) {
+        return deterministic_sdk("secret", new DeterministicTokenSource(now, seed));
+    }
+
+    /**
+     * Returns the signed part of a token after checking its partner id and signature.
+     */
+    static String verify(String token, String secret) throws Exception {
+        Assert.assertTrue("Java SDK tests: token prefix missing: " + token, token.startsWith("T1=="));
+        String inner = new String(Base64.decode(token.substring(4)), "UTF-8");
+        Assert.assertTrue("Java SDK tests: partner id missing: " + inner, inner.startsWith("partner_id=1234&sig="));
+        int colon = inner.indexOf(':');
+        String sig = inner.substring("partner_id=1234&sig=".length(), colon);
+        String data = inner.substring(colon + 1);
+        Assert.assertEquals("Java SDK tests: bad signature on " + data, GenerateMac.calculateRFC2104HMAC(data, secret), sig);
+        return data;
+    }
+
+    /**
+     * Starts a local HTTP server on a free loopback port with handler serving every path.
+     */
+    static HttpServer server(HttpHandler handler) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", handler);
+        server.start();
+        return server;
+    }
+
+    static HttpServer server(int status, String body) throws Exception {
+        return server(status, body, false, 0);
+    }
+
+    /**
+     * Starts a local server answering every request, once its body is read, with this status
+     * and body after latency_ms, gzip-compressed if asked.
+     */
+    static HttpServer server(final int status, final String body, final boolean gzip, final long latency_ms) throws Exception {
+        return server(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws java.io.IOException {
+                InputStream in = exchange.getRequestBody();
+                while(in.read() >= 0) {
+                }
+                if(latency_ms > 0) {
+                    try {
+                        Thread.sleep(latency_ms);
+                    } catch(InterruptedException e) {
+                    }
+                }
+                byte[] bytes = body.getBytes("UTF-8");
+                if(gzip) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    GZIPOutputStream out = new GZIPOutputStream(compressed);
+                    out.write(bytes);
+                    out.close();
+                    bytes = compressed.toByteArray();
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(status, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+    }
+
+    static String url(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
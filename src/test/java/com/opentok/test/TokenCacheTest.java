@@ -0,0 +1,108 @@
+/*
+ * Tests for TokenCache reuse, staleness and eviction, driven by a deterministic clock.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.DeterministicTokenSource;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenCache;
+import com.opentok.api.constants.RoleConstants;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenCacheTest {
+
+    private final DeterministicTokenSource source = new DeterministicTokenSource(1700000000L, 7);
+    private final OpenTokSDK sdk;
+
+    public TokenCacheTest() {
+        sdk = TestSupport.deterministic_sdk("secret", source);
+    }
+
+    private static String session(int i) {
+        return i + "_MX4xMjM0fg";
+    }
+
+    @Test
+    public void testReuseUntilStale() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 10, 600);
+        String first = cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        Assert.assertEquals("Java SDK tests: fresh token not reused", first, cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null));
+
+        source.advance(3000);
+        Assert.assertEquals("Java SDK tests: token with exactly min_remaining left not reused",
+                first, cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null));
+
+        source.advance(1);
+        String second = cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        Assert.assertFalse("Java SDK tests: stale token handed out", first.equals(second));
+        Assert.assertEquals("Java SDK tests: refreshed token should replace the stale one", 1, cache.size());
+    }
+
+    @Test
+    public void testKeyParts() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 10, 600);
+        String token = cache.generate_token(session(1), RoleConstants.PUBLISHER, null);
+        Assert.assertFalse("Java SDK tests: role not part of the key",
+                token.equals(cache.generate_token(session(1), RoleConstants.SUBSCRIBER, null)));
+        Assert.assertFalse("Java SDK tests: expiry window not part of the key",
+                token.equals(cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null)));
+        Assert.assertFalse("Java SDK tests: null and empty connection_data share an entry",
+                token.equals(cache.generate_token(session(1), RoleConstants.PUBLISHER, "")));
+        Assert.assertEquals("Java SDK tests: wrong entry count", 4, cache.size());
+    }
+
+    @Test
+    public void testEvictsOldestFirst() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 2, 600);
+        String first = cache.generate_token(session(1), RoleConstants.PUBLISHER, null);
+        String second = cache.generate_token(session(2), RoleConstants.PUBLISHER, null);
+        cache.generate_token(session(3), RoleConstants.PUBLISHER, null);
+        Assert.assertEquals("Java SDK tests: cache grew past max_entries", 2, cache.size());
+        Assert.assertEquals("Java SDK tests: newer entry evicted", second, cache.generate_token(session(2), RoleConstants.PUBLISHER, null));
+        Assert.assertFalse("Java SDK tests: oldest entry not evicted", first.equals(cache.generate_token(session(1), RoleConstants.PUBLISHER, null)));
+    }
+
+    @Test
+    public void testRefreshedEntryEvictedLast() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 2, 600);
+        String a = cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        String b = cache.generate_token(session(2), RoleConstants.PUBLISHER, 7200L, null);
+        source.advance(3001);
+        String refreshed = cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        Assert.assertFalse("Java SDK tests: stale token handed out", a.equals(refreshed));
+        cache.generate_token(session(3), RoleConstants.PUBLISHER, 3600L, null);
+        Assert.assertEquals("Java SDK tests: cache grew past max_entries", 2, cache.size());
+        Assert.assertEquals("Java SDK tests: refreshed entry evicted", refreshed, cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null));
+        Assert.assertFalse("Java SDK tests: entry minted longest ago not evicted", b.equals(cache.generate_token(session(2), RoleConstants.PUBLISHER, 7200L, null)));
+    }
+
+    @Test
+    public void testStaleEntriesDroppedOnInsert() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 100, 600);
+        cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        cache.generate_token(session(2), RoleConstants.PUBLISHER, 3600L, null);
+        source.advance(3500);
+        cache.generate_token(session(3), RoleConstants.PUBLISHER, 3600L, null);
+        Assert.assertEquals("Java SDK tests: stale entries kept although never looked up again", 1, cache.size());
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        TokenCache cache = new TokenCache(sdk, 100, 600);
+        cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        cache.generate_token(session(2), RoleConstants.PUBLISHER, 7200L, null);
+        source.advance(3500);
+        Assert.assertEquals("Java SDK tests: wrong number of entries purged", 1, cache.purge());
+        Assert.assertEquals("Java SDK tests: fresh entry purged", 1, cache.size());
+        source.advance(3500);
+        Assert.assertEquals("Java SDK tests: wrong number of entries purged", 1, cache.purge());
+        Assert.assertEquals("Java SDK tests: cache should be empty", 0, cache.size());
+
+        cache.generate_token(session(1), RoleConstants.PUBLISHER, 3600L, null);
+        cache.clear();
+        Assert.assertEquals("Java SDK tests: clear left entries behind", 0, cache.size());
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Tests for TokenDaemon's request handling over raw sockets: minting and pipelining, the auth
+ * token and its file, the loopback Host check, malformed requests, the connection limit, and
+ * the Unix domain socket.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenDaemon;
+import com.opentok.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenDaemonTest {
+
+    private static final String SESSION_ID = "1_" + Base64.encode("1~1234~daemon~0~").replace('+', '-').replace('/', '_').replace("=", "");
+
+    private static TokenDaemon start() throws Exception {
+        TokenDaemon daemon = new TokenDaemon(new OpenTokSDK(1234, "secret", "http://127.0.0.1:1"), 0);
+        daemon.start(0);
+        return daemon;
+    }
+
+    private static String post(TokenDaemon daemon, String body, String extra_headers) throws Exception {
+        return "POST /tokens HTTP/1.1\r\nHost: 127.0.0.1:" + daemon.get_port() + "\r\nAuthorization: Bearer " + daemon.get_auth_token()
+                + "\r\n" + extra_headers + "Content-Length: " + body.getBytes("UTF-8").length + "\r\n\r\n" + body;
+    }
+
+    private static String exchange(InputStream in, OutputStream out, String requests) throws Exception {
+        out.write(requests.getBytes("UTF-8"));
+        out.flush();
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while((n = in.read(buffer)) > 0) {
+            response.write(buffer, 0, n);
+        }
+        return response.toString("UTF-8");
+    }
+
+    /**
+     * Writes the requests in one go and reads until the daemon closes the connection.
+     */
+    private static String exchange(TokenDaemon daemon, String requests) throws Exception {
+        Socket socket = new Socket("127.0.0.1", daemon.get_port());
+        try {
+            socket.setSoTimeout(5000);
+            return exchange(socket.getInputStream(), socket.getOutputStream(), requests);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Like exchange, but returns an empty response when the daemon resets the connection: it
+     * refuses connections over its limit without reading the request, so the reset can
+     * overtake its 503.
+     */
+    private static String exchange_refusable(TokenDaemon daemon, String requests) throws Exception {
+        try {
+            return exchange(daemon, requests);
+        } catch(SocketException e) {
+            return "";
+        }
+    }
+
+    private static int count(String s, String part) {
+        int count = 0;
+        for(int i = s.indexOf(part); i >= 0; i = s.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testMintsPipelinedRequests() throws Exception {
+        TokenDaemon daemon = start();
+        try {
+            String response = exchange(daemon,
+                    post(daemon, SESSION_ID + "\tpublisher\t\tuser=1\n" + SESSION_ID + "\n", "")
+                    + "GET /health HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + post(daemon, "bad\tpublisher\n" + SESSION_ID + "\tsubscriber\tsoon\r\n", "Connection: close\r\n"));
+            Assert.assertEquals("Java SDK tests: pipelined requests not all answered: " + response, 3, count(response, "HTTP/1.1 200 OK"));
+            String[] bodies = response.split("\r\n\r\n");
+            Assert.assertEquals("Java SDK tests: unexpected responses: " + response, 4, bodies.length);
+            String[] first = bodies[1].substring(0, bodies[1].indexOf("HTTP/1.1")).split("\n");
+            Assert.assertEquals("Java SDK tests: one token line per request line: " + bodies[1], 2, first.length);
+            Assert.assertTrue("Java SDK tests: token not minted: " + first[0], first[0].startsWith("T1=="));
+            Assert.assertTrue("Java SDK tests: token not minted: " + first[1], first[1].startsWith("T1=="));
+            Assert.assertTrue("Java SDK tests: health not answered in order: " + bodies[2], bodies[2].startsWith("ok\n"));
+            String[] last = bodies[3].split("\n");
+            Assert.assertTrue("Java SDK tests: invalid session not rejected: " + last[0], last[0].startsWith("!INVALID_SESSION_ID"));
+            Assert.assertTrue("Java SDK tests: bad expire time not rejected: " + last[1], last[1].startsWith("!EXPIRE_TIME_INVALID soon"));
+            Assert.assertEquals("Java SDK tests: requests not counted", 3, daemon.requests());
+            Assert.assertEquals("Java SDK tests: token lines not counted", 4, daemon.tokens());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testRequiresAuthToken() throws Exception {
+        TokenDaemon daemon = start();
+        try {
+            String body = SESSION_ID + "\n";
+            String request = "POST /tokens HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+            Assert.assertTrue("Java SDK tests: request without a token served",
+                    exchange(daemon, request).startsWith("HTTP/1.1 401 "));
+            String wrong = request.replace("Host: 127.0.0.1\r\n", "Host: 127.0.0.1\r\nAuthorization: Bearer 0123456789\r\n");
+            Assert.assertTrue("Java SDK tests: request with a wrong token served",
+                    exchange(daemon, wrong).startsWith("HTTP/1.1 401 "));
+            Assert.assertEquals("Java SDK tests: tokens minted without auth", 0, daemon.tokens());
+            Assert.assertTrue("Java SDK tests: health check should not need the token",
+                    exchange(daemon, "GET /health HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n").startsWith("HTTP/1.1 200 "));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testRejectsForeignHost() throws Exception {
+        TokenDaemon daemon = start();
+        try {
+            String[] hosts = { "Host: evil.example.com\r\n", "Host: 127.0.0.1.evil.example.com:80\r\n", "Host: [::2]\r\n", "" };
+            for(int i = 0; i < hosts.length; i++) {
+                String request = post(daemon, SESSION_ID + "\n", "").replaceFirst("Host: [^\r]*\r\n", hosts[i]);
+                Assert.assertTrue("Java SDK tests: request with '" + hosts[i].trim() + "' served",
+                        exchange(daemon, request).startsWith("HTTP/1.1 403 "));
+            }
+            String[] loopback = { "Host: localhost\r\n", "Host: [::1]:7450\r\n", "Host: 127.0.0.1\r\n" };
+            for(int i = 0; i < loopback.length; i++) {
+                String request = post(daemon, SESSION_ID + "\n", "Connection: close\r\n").replaceFirst("Host: [^\r]*\r\n", loopback[i]);
+                Assert.assertTrue("Java SDK tests: request with '" + loopback[i].trim() + "' refused",
+                        exchange(daemon, request).startsWith("HTTP/1.1 200 "));
+            }
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testMalformedRequests() throws Exception {
+        TokenDaemon daemon = start();
+        try {
+            String[] lengths = { "abc", "-1", "1 2", "99999999999", "" };
+            for(int i = 0; i < lengths.length; i++) {
+                String request = "POST /tokens HTTP/1.1\r\nHost: 127.0.0.1\r\nAuthorization: Bearer " + daemon.get_auth_token()
+                        + "\r\nContent-Length: " + lengths[i] + "\r\n\r\nx\n";
+                Assert.assertTrue("Java SDK tests: Content-Length '" + lengths[i] + "' accepted",
+                        exchange(daemon, request).startsWith("HTTP/1.1 400 "));
+            }
+            String twice = post(daemon, "x\n", "Content-Length: 5\r\n");
+            Assert.assertTrue("Java SDK tests: conflicting Content-Length accepted", exchange(daemon, twice).startsWith("HTTP/1.1 400 "));
+
+            String chunked = post(daemon, "", "Transfer-Encoding: chunked\r\n").replace("Content-Length: 0\r\n", "");
+            Assert.assertTrue("Java SDK tests: chunked body accepted", exchange(daemon, chunked).startsWith("HTTP/1.1 411 "));
+
+            String not_found = "POST /other HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 3\r\n\r\nabc"
+                    + "GET /health HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n";
+            String response = exchange(daemon, not_found);
+            Assert.assertTrue("Java SDK tests: unknown path not answered with 404: " + response, response.startsWith("HTTP/1.1 404 "));
+            Assert.assertTrue("Java SDK tests: body of an unknown path not skipped: " + response, response.endsWith("ok\n"));
+            Assert.assertEquals("Java SDK tests: tokens minted from malformed requests", 0, daemon.tokens());
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+        TokenDaemon daemon = start();
+        daemon.set_max_connections(1);
+        try {
+            Socket held = new Socket("127.0.0.1", daemon.get_port());
+            try {
+                held.setSoTimeout(5000);
+                OutputStream out = held.getOutputStream();
+                out.write("GET /health HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes("UTF-8"));
+                out.flush();
+                byte[] buffer = new byte[4096];
+                int n = held.getInputStream().read(buffer);
+                Assert.assertTrue("Java SDK tests: first connection not served", n > 0 && new String(buffer, 0, n, "UTF-8").startsWith("HTTP/1.1 200 "));
+
+                String response = exchange_refusable(daemon, post(daemon, SESSION_ID + "\n", ""));
+                Assert.assertTrue("Java SDK tests: connection over the limit served: " + response,
+                        response.length() == 0 || response.startsWith("HTTP/1.1 503 "));
+                Assert.assertEquals("Java SDK tests: refusal not counted", 1, daemon.refused());
+                Assert.assertEquals("Java SDK tests: tokens minted over the limit", 0, daemon.tokens());
+            } finally {
+                held.close();
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            String response;
+            while(!(response = exchange_refusable(daemon, post(daemon, SESSION_ID + "\n", "Connection: close\r\n"))).startsWith("HTTP/1.1 200 ")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue("Java SDK tests: slot not freed by a closed connection: " + response, response.startsWith("HTTP/1.1 200 "));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    @Test
+    public void testTokenFile() throws Exception {
+        File directory = Files.createTempDirectory("daemon").toFile();
+        File file = new File(directory, "token");
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://127.0.0.1:1");
+        String token = new TokenDaemon(sdk, 0, file).get_auth_token();
+        Assert.assertEquals("Java SDK tests: token not written to the file", token + "\n", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        Assert.assertEquals("Java SDK tests: token not read back from the file", token, new TokenDaemon(sdk, 0, file).get_auth_token());
+        Assert.assertFalse("Java SDK tests: tokens repeat", token.equals(new TokenDaemon(sdk, 0).get_auth_token()));
+
+        if(file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Assert.assertEquals("Java SDK tests: token file readable by others", "rw-------",
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+            Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+            try {
+                new TokenDaemon(sdk, 0, file);
+                Assert.fail("Java SDK tests: world-readable token file accepted");
+            } catch(java.io.IOException e) {
+            }
+        }
+        file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        File directory = Files.createTempDirectory("daemon").toFile();
+        File path = new File(directory, "daemon.sock");
+        TokenDaemon daemon = start();
+        try {
+            try {
+                daemon.listen_unix(path);
+            } catch(UnsupportedOperationException e) {
+                // Older than Java 16
+                return;
+            }
+            SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class).invoke(null, path.getPath());
+            SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+            Closeable connection = channel;
+            try {
+                channel.connect(address);
+                String response = exchange(Channels.newInputStream(channel), Channels.newOutputStream(channel),
+                        post(daemon, SESSION_ID + "\n", "Connection: close\r\n"));
+                Assert.assertTrue("Java SDK tests: token not minted over the Unix socket: " + response,
+                        response.startsWith("HTTP/1.1 200 ") && response.contains("\r\n\r\nT1=="));
+            } finally {
+                connection.close();
+            }
+            Assert.assertEquals("Java SDK tests: socket file readable by others", "rw-------",
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(path.toPath())));
+        } finally {
+            daemon.stop();
+        }
+        Assert.assertFalse("Java SDK tests: socket file left behind", path.exists());
+        directory.delete();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Tests for try_generate_token: every TokenResult error code, and that generate_token
+ * still throws the same messages it always has.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.DeterministicTokenSource;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenResult;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenResultTest {
+
+    private static final String SESSION_ID = "1_MX4xMjM0fg";
+    private static final long NOW = 1700000000L;
+
+    private static OpenTokSDK sdk(String secret) {
+        return TestSupport.deterministic_sdk(secret, new DeterministicTokenSource(NOW, 3));
+    }
+
+    private static String long_data() {
+        StringBuilder data = new StringBuilder();
+        for(int i = 0; i < 1001; i++) {
+            data.append('x');
+        }
+        return data.toString();
+    }
+
+    private static void check(OpenTokSDK sdk, TokenResult.Error error, String message,
+            String session_id, String role, Long expire_time, String connection_data) {
+        TokenResult result = sdk.try_generate_token(session_id, role, expire_time, connection_data);
+        Assert.assertFalse("Java SDK tests: " + error + " accepted", result.ok());
+        Assert.assertNull("Java SDK tests: failed result carries a token", result.token);
+        Assert.assertEquals("Java SDK tests: wrong error code", error, result.error);
+        Assert.assertEquals("Java SDK tests: wrong message for " + error, message, result.get_message());
+        try {
+            result.get_token();
+            Assert.fail("Java SDK tests: get_token did not throw for " + error);
+        } catch(OpenTokException e) {
+            Assert.assertEquals("Java SDK tests: get_token message differs for " + error, message, e.getMessage());
+        }
+        try {
+            sdk.generate_token(session_id, role, expire_time, connection_data);
+            Assert.fail("Java SDK tests: generate_token did not throw for " + error);
+        } catch(OpenTokException e) {
+            Assert.assertEquals("Java SDK tests: generate_token message changed for " + error, message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testErrorCodes() throws Exception {
+        OpenTokSDK sdk = sdk("secret");
+        check(sdk, TokenResult.Error.EMPTY_SESSION_ID, "Null or empty session ID are not valid",
+                null, RoleConstants.PUBLISHER, null, null);
+        check(sdk, TokenResult.Error.EMPTY_SESSION_ID, "Null or empty session ID are not valid",
+                "", RoleConstants.PUBLISHER, null, null);
+        check(sdk, TokenResult.Error.INVALID_SESSION_ID, "An invalid session ID was passed",
+                "1_MX45OTk5fg", RoleConstants.PUBLISHER, null, null);
+        check(sdk, TokenResult.Error.INVALID_SESSION_ID, "An invalid session ID was passed",
+                "garbage", RoleConstants.PUBLISHER, null, null);
+        check(sdk, TokenResult.Error.INVALID_ROLE, "admin is not a recognized role",
+                SESSION_ID, "admin", null, null);
+        check(sdk, TokenResult.Error.EXPIRE_TIME_IN_PAST, "Expire time must be in the future",
+                SESSION_ID, RoleConstants.PUBLISHER, NOW - 2, null);
+        check(sdk, TokenResult.Error.EXPIRE_TIME_TOO_FAR, "Expire time must be in the next 30 days",
+                SESSION_ID, RoleConstants.PUBLISHER, NOW + 2592001, null);
+        check(sdk, TokenResult.Error.CONNECTION_DATA_TOO_LONG, "Connection data must be less than 1000 characters",
+                SESSION_ID, RoleConstants.PUBLISHER, null, long_data());
+    }
+
+    @Test
+    public void testSigningFailed() throws Exception {
+        TokenResult result = sdk("").try_generate_token(SESSION_ID, RoleConstants.PUBLISHER, null, null);
+        Assert.assertEquals("Java SDK tests: wrong error code", TokenResult.Error.SIGNING_FAILED, result.error);
+        Assert.assertTrue("Java SDK tests: signing failure not described: " + result.get_message(),
+                result.get_message().startsWith("Failed to generate HMAC"));
+        check(sdk(""), TokenResult.Error.SIGNING_FAILED, result.get_message(), SESSION_ID, RoleConstants.PUBLISHER, null, null);
+    }
+
+    @Test
+    public void testBoundariesAccepted() throws Exception {
+        OpenTokSDK sdk = sdk("secret");
+        TokenResult[] results = {
+            sdk.try_generate_token(SESSION_ID, RoleConstants.PUBLISHER, NOW - 1, null),
+            sdk.try_generate_token(SESSION_ID, RoleConstants.SUBSCRIBER, NOW + 2592000, null),
+            sdk.try_generate_token(SESSION_ID, RoleConstants.MODERATOR, null, long_data().substring(1)),
+            sdk.try_generate_token(SESSION_ID, "", null, null),
+        };
+        for(int i = 0; i < results.length; i++) {
+            Assert.assertTrue("Java SDK tests: valid input rejected: " + results[i].get_message(), results[i].ok());
+            Assert.assertNull("Java SDK tests: successful result carries an error", results[i].error);
+            Assert.assertNull("Java SDK tests: successful result carries a message", results[i].get_message());
+            Assert.assertEquals("Java SDK tests: get_token differs from token", results[i].token, results[i].get_token());
+            TestSupport.verify(results[i].token, "secret");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Tests for the clock and nonce sources behind token minting: reproducible tokens from a
+ * DeterministicTokenSource, unique nonces from the default source under concurrency, and
+ * the default clock's ticker thread coming and going with use.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.DeterministicTokenSource;
+import com.opentok.api.NonceSource;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenClock;
+import com.opentok.api.constants.RoleConstants;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenSourceTest {
+
+    private static final String SESSION_ID = "1_MX4xMjM0fg";
+
+    private static List<String> mint(int seed, int count) throws Exception {
+        DeterministicTokenSource source = new DeterministicTokenSource(1700000000L, seed);
+        OpenTokSDK sdk = TestSupport.deterministic_sdk("secret", source);
+        List<String> tokens = new ArrayList<String>();
+        for(int i = 0; i < count; i++) {
+            tokens.add(sdk.generate_token(SESSION_ID, RoleConstants.PUBLISHER, null, "user=" + i));
+            if(i % 3 == 2) {
+                source.advance(1);
+            }
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testDeterministicTokensRepeat() throws Exception {
+        List<String> first = mint(42, 20);
+        Assert.assertEquals("Java SDK tests: same seed gave different tokens", first, mint(42, 20));
+        Assert.assertEquals("Java SDK tests: tokens repeat within a run", first.size(), new HashSet<String>(first).size());
+        List<String> other = mint(43, 20);
+        for(int i = 0; i < first.size(); i++) {
+            Assert.assertFalse("Java SDK tests: another seed gave the same token " + i, first.get(i).equals(other.get(i)));
+        }
+    }
+
+    @Test
+    public void testDeterministicClock() throws Exception {
+        DeterministicTokenSource source = new DeterministicTokenSource(1700000000L, 1);
+        Assert.assertEquals("Java SDK tests: clock did not start where told", 1700000000L, source.now_seconds());
+        source.advance(3600);
+        Assert.assertEquals("Java SDK tests: clock did not advance", 1700003600L, source.now_seconds());
+
+        Set<Integer> nonces = new HashSet<Integer>();
+        for(int i = 0; i < 100000; i++) {
+            Assert.assertTrue("Java SDK tests: deterministic nonce repeated after " + i, nonces.add(source.next_nonce(1700003600L)));
+        }
+    }
+
+    @Test
+    public void testDefaultNoncesUniqueAcrossThreads() throws Exception {
+        final NonceSource source = new OpenTokSDK(1234, "secret", "http://api.example.com").get_nonce_source();
+        final int threads = 8;
+        // Several blocks per thread, so threads keep coming back to the shared counter
+        final int per_thread = 5000;
+        final int[][] nonces = new int[threads][per_thread];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++) {
+            final int[] mine = nonces[t];
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                    for(int i = 0; i < mine.length; i++) {
+                        mine[i] = source.next_nonce(1700000000L);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        int[] all = new int[threads * per_thread];
+        for(int t = 0; t < threads; t++) {
+            workers[t].join();
+            System.arraycopy(nonces[t], 0, all, t * per_thread, per_thread);
+        }
+        Arrays.sort(all);
+        for(int i = 1; i < all.length; i++) {
+            Assert.assertTrue("Java SDK tests: nonce " + all[i] + " issued twice", all[i] != all[i - 1]);
+        }
+    }
+
+    private static boolean ticker_running() {
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if("opentok-clock".equals(thread.getName()) && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testDefaultClockTickerStopsWhenIdle() throws Exception {
+        TokenClock clock = new OpenTokSDK(1234, "secret", "http://api.example.com").get_clock();
+        long now = clock.now_seconds();
+        Assert.assertTrue("Java SDK tests: default clock is off: " + now, Math.abs(now - System.currentTimeMillis() / 1000) <= 1);
+        Assert.assertTrue("Java SDK tests: reading the clock did not start the ticker", ticker_running());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(ticker_running() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        Assert.assertFalse("Java SDK tests: ticker still running after the clock went idle", ticker_running());
+
+        now = clock.now_seconds();
+        Assert.assertTrue("Java SDK tests: stopped clock is off: " + now, Math.abs(now - System.currentTimeMillis() / 1000) <= 1);
+        Assert.assertTrue("Java SDK tests: reading the clock again did not restart the ticker", ticker_running());
+        for(int i = 0; i < 30; i++) {
+            Thread.sleep(10);
+            now = clock.now_seconds();
+            Assert.assertTrue("Java SDK tests: restarted clock is off: " + now, Math.abs(now - System.currentTimeMillis() / 1000) <= 1);
+        }
+    }
+}
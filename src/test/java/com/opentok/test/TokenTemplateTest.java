@@ -0,0 +1,84 @@
+/*
+ * Checks that tokens minted from a TokenTemplate are the same tokens generate_token
+ * produces, using a deterministic clock and nonce source so the two can be compared.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.TokenTemplate;
+import com.opentok.api.constants.RoleConstants;
+import com.opentok.exception.OpenTokException;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TokenTemplateTest {
+
+    private static final String SESSION_ID = "1_MX4xMjM0fg";
+    private static final long NOW = 1700000000L;
+
+    private static OpenTokSDK sdk() {
+        return TestSupport.deterministic_sdk(NOW, 42);
+    }
+
+    @Test
+    public void testTemplateMatchesGenerateToken() throws Exception {
+        TokenTemplate template = sdk().create_token_template(SESSION_ID, RoleConstants.PUBLISHER, null, "name=Jo & Bo");
+        OpenTokSDK direct = sdk();
+        for(int i = 0; i < 3; i++) {
+            String minted = template.mint();
+            String generated = direct.generate_token(SESSION_ID, RoleConstants.PUBLISHER, null, "name=Jo & Bo");
+            Assert.assertEquals("Java SDK tests: template token differs from generate_token", generated, minted);
+            String data = TestSupport.verify(minted, "secret");
+            Assert.assertTrue("Java SDK tests: connection data not encoded: " + data, data.endsWith("&connection_data=name%3DJo+%26+Bo"));
+        }
+    }
+
+    @Test
+    public void testSdksWithDifferentSecretsOnOneThread() throws Exception {
+        OpenTokSDK first = sdk();
+        OpenTokSDK second = new OpenTokSDK(1234, "other secret", "http://api.example.com");
+        for(int i = 0; i < 3; i++) {
+            TestSupport.verify(first.generate_token(SESSION_ID), "secret");
+            TestSupport.verify(second.generate_token(SESSION_ID), "other secret");
+        }
+    }
+
+    @Test
+    public void testTemplateExpireWindow() throws Exception {
+        TokenTemplate template = sdk().create_token_template(SESSION_ID, RoleConstants.MODERATOR, 3600L, null);
+        String minted = template.mint();
+        String generated = sdk().generate_token(SESSION_ID, RoleConstants.MODERATOR, NOW + 3600, null);
+        Assert.assertEquals("Java SDK tests: template token with expiry differs from generate_token", generated, minted);
+        String data = TestSupport.verify(minted, "secret");
+        Assert.assertTrue("Java SDK tests: expire time not relative to create time: " + data,
+                data.startsWith("session_id=" + SESSION_ID + "&create_time=" + NOW + "&nonce="));
+        Assert.assertTrue("Java SDK tests: expire time missing: " + data, data.endsWith("&role=moderator&expire_time=" + (NOW + 3600)));
+    }
+
+    @Test
+    public void testTemplateRejectsWhatGenerateTokenRejects() throws Exception {
+        OpenTokSDK sdk = sdk();
+        String[][] cases = {
+            { "", RoleConstants.PUBLISHER },
+            { "1_MX45OTk5fg", RoleConstants.PUBLISHER },
+            { SESSION_ID, "admin" },
+        };
+        for(int i = 0; i < cases.length; i++) {
+            String expected = null;
+            try {
+                sdk.generate_token(cases[i][0], cases[i][1]);
+                Assert.fail("Java SDK tests: generate_token accepted " + cases[i][0] + " / " + cases[i][1]);
+            } catch(OpenTokException e) {
+                expected = e.getMessage();
+            }
+            try {
+                sdk.create_token_template(cases[i][0], cases[i][1], null, null);
+                Assert.fail("Java SDK tests: template accepted " + cases[i][0] + " / " + cases[i][1]);
+            } catch(OpenTokException e) {
+                Assert.assertEquals("Java SDK tests: template and generate_token disagree", expected, e.getMessage());
+            }
+        }
+    }
+}
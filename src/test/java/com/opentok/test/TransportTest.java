@@ -0,0 +1,182 @@
+/*
+ * Tests for the pluggable transport, run against the in-memory transport
+ * so they need neither network access nor API credentials.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.InMemoryTransport;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.OpenTokSession;
+import com.opentok.api.RequestTiming;
+import com.opentok.api.RequestTracer;
+import com.opentok.api.SessionTemplate;
+import com.opentok.api.Transport;
+import com.opentok.api.TransportRequest;
+import com.opentok.api.TransportResponse;
+import com.opentok.api.constants.SessionProperties;
+import com.opentok.exception.OpenTokException;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TransportTest {
+
+    private InMemoryTransport transport;
+    private OpenTokSDK sdk;
+
+    public TransportTest() {
+        transport = new InMemoryTransport();
+        sdk = new OpenTokSDK(1234, "secret", "http://api.example.com");
+        sdk.set_transport(transport);
+    }
+
+    @Test
+    public void testCreateSessionThroughTransport() throws Exception {
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        SessionProperties sp = new SessionProperties();
+        sp.p2p_preference = "enabled";
+        OpenTokSession session = sdk.create_session("10.0.0.1", sp);
+        Assert.assertEquals("Java SDK tests: session id not parsed from transport response", "1_MX4xMjM0fg", session.session_id);
+
+        TransportRequest request = transport.get_requests().get(0);
+        Assert.assertEquals("Java SDK tests: wrong request url", "http://api.example.com/session/create", request.url);
+        Assert.assertEquals("Java SDK tests: partner auth header not set", "1234:secret", request.headers.get("X-TB-PARTNER-AUTH"));
+        String body = new String(request.get_body(), "UTF-8");
+        Assert.assertTrue("Java SDK tests: location not form encoded: " + body, body.contains("location=10.0.0.1&"));
+        Assert.assertTrue("Java SDK tests: properties not form encoded: " + body, body.contains("p2p.preference=enabled&"));
+    }
+
+    @Test
+    public void testSessionTemplate() throws Exception {
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        SessionProperties sp = new SessionProperties();
+        sp.echoSuppression_enabled = true;
+        SessionTemplate template = sdk.create_session_template(sp);
+        template.create_session("10.0.0.1");
+        template.create_session(null);
+
+        String first = new String(transport.get_requests().get(0).get_body(), "UTF-8");
+        String second = new String(transport.get_requests().get(1).get_body(), "UTF-8");
+        Assert.assertEquals("Java SDK tests: template body not reused", "echoSuppression.enabled=true&location=10.0.0.1&", first);
+        Assert.assertEquals("Java SDK tests: null location should be left out", "echoSuppression.enabled=true&", second);
+    }
+
+    @Test
+    public void testCreateSessionLeavesParamsUntouched() throws Exception {
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("p2p.preference", "enabled");
+        sdk.create_session("10.0.0.1", params);
+        Assert.assertEquals("Java SDK tests: caller's params were modified", 1, params.size());
+    }
+
+    @Test
+    public void testCreateSessionAsync() throws Exception {
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        OpenTokSession session = sdk.create_session_async(null, null).get();
+        Assert.assertEquals("Java SDK tests: async session id not parsed", "1_MX4xMjM0fg", session.session_id);
+    }
+
+    private static class CountingTracer implements RequestTracer {
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger ended = new AtomicInteger();
+
+        public void on_start(RequestTiming timing) {
+            started.incrementAndGet();
+        }
+
+        public void on_end(RequestTiming timing, OpenTokException error) {
+            ended.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testAsyncGetTwice() throws Exception {
+        CountingTracer tracer = new CountingTracer();
+        sdk.set_request_tracer(tracer);
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        Future<OpenTokSession> future = sdk.create_session_async(null, null);
+        Assert.assertEquals("Java SDK tests: first get() lost the session", "1_MX4xMjM0fg", future.get().session_id);
+        Assert.assertEquals("Java SDK tests: second get() lost the session", "1_MX4xMjM0fg", future.get(1, TimeUnit.SECONDS).session_id);
+        Assert.assertEquals("Java SDK tests: on_end should fire once", 1, tracer.ended.get());
+    }
+
+    @Test
+    public void testAsyncErrorGetTwice() throws Exception {
+        CountingTracer tracer = new CountingTracer();
+        sdk.set_request_tracer(tracer);
+        transport.respond("/session/create", 403, "<Errors><error code=\"403\"><headline>Invalid partner credentials</headline></error></Errors>");
+        Future<OpenTokSession> future = sdk.create_session_async(null, null);
+        for(int i = 0; i < 2; i++) {
+            try {
+                future.get();
+                Assert.fail("Java SDK tests: error response returned a session");
+            } catch(ExecutionException e) {
+                Assert.assertTrue("Java SDK tests: wrong failure on get() " + i + ": " + e.getCause(), e.getCause() instanceof OpenTokException);
+            }
+        }
+        Assert.assertEquals("Java SDK tests: on_end should fire once", 1, tracer.ended.get());
+    }
+
+    @Test
+    public void testAsyncSendRejected() throws Exception {
+        CountingTracer tracer = new CountingTracer();
+        sdk.set_request_tracer(tracer);
+        sdk.set_transport(new Transport() {
+            public TransportResponse send(TransportRequest request) throws IOException {
+                throw new IOException("not used");
+            }
+
+            public Future<TransportResponse> send_async(TransportRequest request) {
+                throw new RejectedExecutionException("executor shut down");
+            }
+        });
+        try {
+            sdk.create_session_async(null, null);
+            Assert.fail("Java SDK tests: rejected send did not fail");
+        } catch(OpenTokException e) {
+            Assert.assertTrue("Java SDK tests: rejection not reported: " + e.getMessage(), e.getMessage().contains("executor shut down"));
+        }
+        Assert.assertEquals("Java SDK tests: on_end should fire once for a rejected send", 1, tracer.ended.get());
+    }
+
+    @Test
+    public void testRequestBodyIsCopied() throws Exception {
+        byte[] body = "location=10.0.0.1&".getBytes("UTF-8");
+        TransportRequest request = new TransportRequest("http://api.example.com/session/create",
+                new HashMap<String, String>(), "application/x-www-form-urlencoded", body);
+        body[0] = 'X';
+        request.get_body()[1] = 'X';
+        Assert.assertEquals("Java SDK tests: request body shares the caller's array", "location=10.0.0.1&", new String(request.get_body(), "UTF-8"));
+        Assert.assertEquals("Java SDK tests: wrong body length", body.length, request.get_body_length());
+
+        transport.respond("/session/create", 200, TestSupport.SESSION_XML);
+        SessionTemplate template = sdk.create_session_template(new SessionProperties());
+        template.create_session(null);
+        Arrays.fill(transport.get_requests().get(0).get_body(), (byte) 'X');
+        template.create_session(null);
+        Assert.assertEquals("Java SDK tests: template body changed between calls",
+                new String(transport.get_requests().get(0).get_body(), "UTF-8"),
+                new String(transport.get_requests().get(1).get_body(), "UTF-8"));
+    }
+
+    @Test
+    public void testErrorResponse() {
+        transport.respond("/session/create", 403, "<Errors><error code=\"403\"><headline>Invalid partner credentials</headline></error></Errors>");
+        OpenTokException expected = null;
+        try {
+            sdk.create_session();
+        } catch (OpenTokException e) {
+            expected = e;
+        }
+        Assert.assertNotNull("Java SDK tests: exception should be thrown for an error response", expected);
+    }
+}
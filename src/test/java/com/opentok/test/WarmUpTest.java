@@ -0,0 +1,63 @@
+/*
+ * Tests that warm_up stays inside the process: no request reaches the API and no
+ * warm-up token is journaled.
+ */
+
+package com.opentok.test;
+
+import com.opentok.api.IssuanceJournal;
+import com.opentok.api.OpenTokSDK;
+import com.opentok.api.WarmupReport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class WarmUpTest {
+
+    @Test
+    public void testWarmUpSendsNothingAndJournalsNothing() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        HttpServer server = TestSupport.server(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws java.io.IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+
+        File directory = File.createTempFile("journal", "");
+        directory.delete();
+        directory.mkdirs();
+        IssuanceJournal journal = new IssuanceJournal(directory);
+        try {
+            OpenTokSDK sdk = new OpenTokSDK(1234, "secret", TestSupport.url(server));
+            sdk.set_issuance_journal(journal);
+            WarmupReport report = sdk.warm_up(500);
+            Assert.assertEquals("Java SDK tests: endpoint not connected: " + report, 1, report.endpoints_connected);
+            Assert.assertTrue("Java SDK tests: no warm-up rounds run: " + report, report.iterations > 0);
+            Assert.assertTrue("Java SDK tests: no token latency measured: " + report, report.token_nanos > 0);
+        } finally {
+            journal.close();
+            server.stop(0);
+        }
+        Assert.assertEquals("Java SDK tests: warm-up sent a request", 0, requests.get());
+        Assert.assertEquals("Java SDK tests: warm-up tokens were journaled", 0, journal.written());
+    }
+
+    @Test
+    public void testUnreachableEndpoint() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        OpenTokSDK sdk = new OpenTokSDK(1234, "secret", "http://127.0.0.1:" + port);
+        WarmupReport report = sdk.warm_up(200);
+        Assert.assertEquals("Java SDK tests: closed port reported reachable: " + report, 1, report.endpoints_failed);
+        Assert.assertEquals("Java SDK tests: closed port reported reachable: " + report, 0, report.endpoints_connected);
+    }
+}